@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat.benchmarks;
+
+import dev.blackilykat.parsers.Resampler;
+
+import java.util.Random;
+
+/**
+ * Measures how fast {@link Resampler} runs on a single core, fed in chunks of the size of a typical FLAC frame.
+ * Results are in multiples of realtime for one stereo track (so both channels are resampled).
+ * <p>
+ * Usage: {@code ./gradlew bench -Pbenchmark=ResamplerBenchmark --args="[seconds of audio]"}
+ */
+public class ResamplerBenchmark {
+    private static final int OUTPUT_RATE = 44100;
+    private static final int[] INPUT_RATES = {48000, 88200, 96000, 192000};
+    private static final int CHUNK_SIZE = 4096;
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+
+        for(int inputRate : INPUT_RATES) {
+            float[] input = generateInput(inputRate, seconds);
+            float[] output = new float[CHUNK_SIZE * 2];
+
+            for(int i = 0; i < WARMUP_RUNS; i++) {
+                run(inputRate, input, output);
+            }
+
+            long best = Long.MAX_VALUE;
+            for(int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                run(inputRate, input, output);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            double realtime = seconds / (best / 1_000_000_000.0);
+            System.out.printf("%6d -> %d Hz: %8.1f ms for %d s of stereo audio, %6.1fx realtime%n",
+                    inputRate, OUTPUT_RATE, best / 1_000_000.0, seconds, realtime);
+        }
+    }
+
+    private static void run(int inputRate, float[] input, float[] output) {
+        // two channels, same as FlacFileParser does for a stereo track
+        for(int channel = 0; channel < 2; channel++) {
+            Resampler resampler = new Resampler(inputRate, OUTPUT_RATE);
+            for(int offset = 0; offset < input.length; offset += CHUNK_SIZE) {
+                resampler.process(input, offset, Math.min(CHUNK_SIZE, input.length - offset), output, 0);
+            }
+        }
+    }
+
+    /**
+     * A couple tones plus some noise at roughly the level of actual music
+     */
+    private static float[] generateInput(int rate, int seconds) {
+        Random random = new Random(0);
+        float[] samples = new float[rate * seconds];
+        for(int i = 0; i < samples.length; i++) {
+            double t = (double) i / rate;
+            samples[i] = (float) (8000 * Math.sin(2 * Math.PI * 440 * t)
+                    + 4000 * Math.sin(2 * Math.PI * 5000 * t)
+                    + 1000 * random.nextGaussian());
+        }
+        return samples;
+    }
+}
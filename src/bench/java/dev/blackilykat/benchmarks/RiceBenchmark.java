@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat.benchmarks;
+
+import org.kc7bfi.jflac.ChannelData;
+import org.kc7bfi.jflac.FLACDecoder;
+import org.kc7bfi.jflac.frame.Frame;
+import org.kc7bfi.jflac.io.BitInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Compares {@link BitInputStream#readRiceSignedBlock} against {@link BitInputStream#readRiceSignedBlockGeneric} on
+ * residuals taken from actual tracks. Each file is decoded, run through a second order fixed predictor the same way a
+ * FLAC encoder would, and Rice coded in partitions of {@link #PARTITION_SIZE} samples with the best parameter for
+ * each. Pass a mix of 16 and 24 bit files to see both.
+ * <p>
+ * Usage: {@code ./gradlew bench -Pbenchmark=RiceBenchmark --args="<flac files...>"}
+ */
+public class RiceBenchmark {
+    private static final int PARTITION_SIZE = 256;
+    private static final int MAX_PARAMETER = 14;
+    private static final int WARMUP_RUNS = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0) {
+            System.out.println("Usage: RiceBenchmark <flac files...>");
+            return;
+        }
+
+        for(String path : args) {
+            int[] residuals;
+            int bitsPerSample;
+            try(InputStream inputStream = new FileInputStream(path)) {
+                FLACDecoder decoder = new FLACDecoder(inputStream);
+                bitsPerSample = decoder.readStreamInfo().getBitsPerSample();
+                residuals = getResiduals(decoder);
+            }
+            int partitions = (residuals.length + PARTITION_SIZE - 1) / PARTITION_SIZE;
+            int[] parameters = new int[partitions];
+            byte[] encoded = encode(residuals, parameters);
+
+            int[] fast = new int[residuals.length];
+            int[] generic = new int[residuals.length];
+            for(int i = 0; i < WARMUP_RUNS; i++) {
+                run(encoded, parameters, fast, true);
+                run(encoded, parameters, generic, false);
+            }
+            if(!Arrays.equals(fast, residuals) || !Arrays.equals(generic, residuals)) {
+                System.out.println(path + ": decoded residuals don't match!");
+                continue;
+            }
+
+            long bestFast = Long.MAX_VALUE;
+            long bestGeneric = Long.MAX_VALUE;
+            for(int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                run(encoded, parameters, fast, true);
+                bestFast = Math.min(bestFast, System.nanoTime() - start);
+                start = System.nanoTime();
+                run(encoded, parameters, generic, false);
+                bestGeneric = Math.min(bestGeneric, System.nanoTime() - start);
+            }
+
+            System.out.printf("%s (%d bit, %d residuals, %.2f bits each)%n", path, bitsPerSample, residuals.length,
+                    encoded.length * 8.0 / residuals.length);
+            System.out.printf("  fast:    %8.1f ms, %6.1f Msamples/s%n", bestFast / 1_000_000.0,
+                    residuals.length * 1000.0 / bestFast);
+            System.out.printf("  generic: %8.1f ms, %6.1f Msamples/s%n", bestGeneric / 1_000_000.0,
+                    residuals.length * 1000.0 / bestGeneric);
+        }
+    }
+
+    private static void run(byte[] encoded, int[] parameters, int[] output, boolean fast) throws IOException {
+        BitInputStream inputStream = new BitInputStream(new ByteArrayInputStream(encoded));
+        for(int i = 0; i < parameters.length; i++) {
+            int offset = i * PARTITION_SIZE;
+            int length = Math.min(PARTITION_SIZE, output.length - offset);
+            if(fast) {
+                inputStream.readRiceSignedBlock(output, offset, length, parameters[i]);
+            } else {
+                inputStream.readRiceSignedBlockGeneric(output, offset, length, parameters[i]);
+            }
+        }
+    }
+
+    /**
+     * Second order fixed prediction residuals of every channel of every frame, one after the other
+     */
+    private static int[] getResiduals(FLACDecoder decoder) throws IOException {
+        int[] residuals = new int[1 << 20];
+        int count = 0;
+        Frame frame;
+        while((frame = decoder.readNextFrame()) != null) {
+            ChannelData[] channels = decoder.getChannelData();
+            int blockSize = frame.header.blockSize;
+            for(int channel = 0; channel < frame.header.channels; channel++) {
+                int[] samples = channels[channel].getOutput();
+                if(count + blockSize > residuals.length) {
+                    residuals = Arrays.copyOf(residuals, Math.max(residuals.length * 2, count + blockSize));
+                }
+                for(int i = 2; i < blockSize; i++) {
+                    residuals[count++] = samples[i] - 2 * samples[i - 1] + samples[i - 2];
+                }
+            }
+        }
+        return Arrays.copyOf(residuals, count);
+    }
+
+    private static byte[] encode(int[] residuals, int[] parameters) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long bits = 0;
+        int bitCount = 0;
+        for(int partition = 0; partition < parameters.length; partition++) {
+            int start = partition * PARTITION_SIZE;
+            int end = Math.min(residuals.length, start + PARTITION_SIZE);
+
+            long sum = 0;
+            for(int i = start; i < end; i++) {
+                sum += (residuals[i] << 1) ^ (residuals[i] >> 31);
+            }
+            // closest to optimal without trying every parameter
+            long mean = sum / (end - start);
+            int parameter = mean == 0 ? 0 : Math.min(MAX_PARAMETER, 63 - Long.numberOfLeadingZeros(mean));
+            parameters[partition] = parameter;
+
+            for(int i = start; i < end; i++) {
+                int uval = (residuals[i] << 1) ^ (residuals[i] >> 31);
+                int zeros = uval >>> parameter;
+                // unary part, written a byte at a time to keep the accumulator from overflowing
+                while(zeros > 0) {
+                    int chunk = Math.min(zeros, 32);
+                    bits <<= chunk;
+                    bitCount += chunk;
+                    zeros -= chunk;
+                    while(bitCount >= 8) {
+                        output.write((int) (bits >>> (bitCount - 8)));
+                        bitCount -= 8;
+                    }
+                }
+                bits = (bits << (parameter + 1)) | (1L << parameter) | (uval & ((1L << parameter) - 1));
+                bitCount += parameter + 1;
+                while(bitCount >= 8) {
+                    output.write((int) (bits >>> (bitCount - 8)));
+                    bitCount -= 8;
+                }
+            }
+        }
+        if(bitCount > 0) {
+            output.write((int) (bits << (8 - bitCount)));
+        }
+        // padding, so the last codes don't hit the end of the stream
+        output.write(new byte[16], 0, 16);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat.benchmarks;
+
+import dev.blackilykat.Track;
+import dev.blackilykat.TrackDataType;
+import dev.blackilykat.util.Pair;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares how big the track cache gets and how long it takes to load it back, stored through java serialization
+ * like it used to be versus through {@link TrackDataType}. Loading means opening the store and reading every track,
+ * which is what startup does.
+ * <p>
+ * Usage: {@code ./gradlew bench -Pbenchmark=TrackCacheBenchmark --args="[track counts...]"}
+ */
+public class TrackCacheBenchmark {
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int[] counts = args.length > 0 ? new int[args.length] : new int[]{10_000, 100_000};
+        for(int i = 0; i < args.length; i++) {
+            counts[i] = Integer.parseInt(args[i]);
+        }
+
+        for(int count : counts) {
+            List<Track> tracks = generateTracks(count);
+            run("java serialization", tracks, false);
+            run("TrackDataType", tracks, true);
+        }
+    }
+
+    private static void run(String name, List<Track> tracks, boolean compact) throws IOException {
+        File file = File.createTempFile("pmp-track-cache", ".mv.db");
+        try {
+            MVStore store = MVStore.open(file.getPath());
+            Map<String, Track> map = openMap(store, compact);
+            for(Track track : tracks) {
+                map.put(track.getFile().getName(), track);
+            }
+            store.close();
+
+            long best = Long.MAX_VALUE;
+            for(int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                store = MVStore.open(file.getPath());
+                int read = 0;
+                for(Track ignored : openMap(store, compact).values()) {
+                    read++;
+                }
+                best = Math.min(best, System.nanoTime() - start);
+                store.close();
+                if(read != tracks.size()) throw new IllegalStateException("Read " + read + " tracks out of " + tracks.size());
+            }
+
+            System.out.printf("%7d tracks, %-18s: %8.1f ms to load, %7.2f MB on disk%n", tracks.size(), name,
+                    best / 1_000_000.0, Files.size(file.toPath()) / 1_048_576.0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static Map<String, Track> openMap(MVStore store, boolean compact) {
+        if(compact) {
+            return store.openMap("tracks", new MVMap.Builder<String, Track>().valueType(TrackDataType.INSTANCE));
+        }
+        return store.openMap("trackCache");
+    }
+
+    /**
+     * Roughly what a track tagged by a typical tagger looks like, with a small pool of artists and albums so values
+     * repeat like they do in an actual library
+     */
+    private static List<Track> generateTracks(int count) {
+        Random random = new Random(0);
+        List<Track> tracks = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            String title = "Track " + i;
+            String artist = "Artist " + random.nextInt(Math.max(1, count / 50));
+            String album = "Album " + random.nextInt(Math.max(1, count / 10));
+            List<Pair<String, String>> metadata = new ArrayList<>();
+            metadata.add(new Pair<>("TITLE", title));
+            metadata.add(new Pair<>("ARTIST", artist));
+            metadata.add(new Pair<>("ALBUM", album));
+            metadata.add(new Pair<>("ALBUMARTIST", artist));
+            metadata.add(new Pair<>("TRACKNUMBER", Integer.toString(1 + random.nextInt(15))));
+            metadata.add(new Pair<>("DATE", Integer.toString(1960 + random.nextInt(65))));
+            metadata.add(new Pair<>("GENRE", "Genre " + random.nextInt(20)));
+            metadata.add(new Pair<>("ENCODER", "Lavf61.7.100"));
+            File file = new File("library", title.replace(' ', '_') + "_" + album.replace(' ', '_') + ".flac");
+            tracks.add(new Track(file, title + " - " + artist, metadata, random.nextLong(1L << 32),
+                    120 + random.nextInt(300), 1_700_000_000_000L + random.nextInt(1_000_000_000)));
+        }
+        return tracks;
+    }
+}
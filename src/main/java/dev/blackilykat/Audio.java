@@ -24,6 +24,7 @@ import dev.blackilykat.widgets.playbar.PlayBarWidget;
 import jnr.ffi.annotations.In;
 import org.freedesktop.dbus.DBusPath;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.kc7bfi.jflac.metadata.StreamInfo;
 import org.mpris.MPRISMP2None;
 import org.mpris.MPRISMediaPlayer;
 import org.mpris.Metadata;
@@ -33,9 +34,11 @@ import org.mpris.mpris.PlaybackStatus;
 import java.io.File;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -52,6 +55,10 @@ import static dev.blackilykat.Main.LOGGER;
 
 public class Audio {
     public static final int BUFFER_SIZE = 8800;
+    /**
+     * How many seconds of decoded audio each loaded track keeps in memory. Half of it is ahead of the playhead.
+     */
+    public static final int RING_BUFFER_SECONDS = 8;
 
     public Track loadedTrack = null;
     public Track preLoadedTrack = null;
@@ -61,8 +68,11 @@ public class Audio {
 
     public PlaybackSession currentSession;
 
-    // any other configuration doesn't work
-    // might try to make it configurable in the future but also that sounds like a pain to implement
+    /**
+     * Format tracks get converted to when they can't be played as they are. {@link PlaybackSession} positions are
+     * always counted in bytes of this format no matter what the line is actually playing, since they get shared with
+     * the server and other clients.
+     */
     public final AudioFormat audioFormat = new AudioFormat(
             AudioFormat.Encoding.PCM_SIGNED,
             44100,
@@ -78,14 +88,21 @@ public class Audio {
             BUFFER_SIZE);
 
     private SourceDataLine sourceDataLine;
+    /**
+     * Format the line is currently open with
+     */
+    public volatile AudioFormat lineFormat = audioFormat;
+    /**
+     * Native formats the line failed to open with even though the mixer claimed to support them
+     */
+    private final List<AudioFormat> unsupportedFormats = new CopyOnWriteArrayList<>();
 
     public AudioPlayingThread audioPlayingThread = new AudioPlayingThread(this);
     public final Object audioLock = new Object();
 
-    ThreadPoolExecutor songLoadingExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+    // decoding tasks keep running for as long as their track is loaded, so they can't share a single thread
+    ThreadPoolExecutor songLoadingExecutor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
     Future<?> latestSongLoadingFuture;
-
-    ThreadPoolExecutor songPreLoadingExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
     Future<?> latestSongPreLoadingFuture;
 
     public final Library library;
@@ -127,61 +144,181 @@ public class Audio {
             }
         }
 
-        if(preLoadedTrack != track) {
-            if(latestSongLoadingFuture != null) {
-                latestSongLoadingFuture.cancel(true);
+        if(preLoadedTrack != null && preLoadedTrack == track) {
+            if(loadedTrack != track) {
+                unload(loadedTrack, latestSongLoadingFuture);
+            }
+            loadedTrack = track;
+            latestSongLoadingFuture = latestSongPreLoadingFuture;
+            latestSongPreLoadingFuture = null;
+        } else {
+            if(preLoadedTrack != null) {
+                unload(preLoadedTrack, latestSongPreLoadingFuture);
+                latestSongPreLoadingFuture = null;
             }
 
             if(loadedTrack != track) {
-                if(loadedTrack != null) {
-                    loadedTrack.pcmData = null;
-                }
+                unload(loadedTrack, latestSongLoadingFuture);
                 loadedTrack = track;
 
-                latestSongLoadingFuture = songLoadingExecutor.submit(() -> {
-                    try {
-                        if(track != null) {
-                            FlacFileParser.parse(track, this);
-                            PlayBarWidget.timeBar.setMinimum(0);
-                            PlayBarWidget.timeBar.setMaximum(track.pcmData.length);
-                        } else {
-                            PlayBarWidget.timeBar.setMinimum(0);
-                            PlayBarWidget.timeBar.setMaximum(0);
-                        }
-                    } catch(Exception e) {
-                        LOGGER.error("Unknown error", e);
-                    }
-                });
-            }
-
-            if(preLoadedTrack != null) {
-                preLoadedTrack.pcmData = null;
+                if(track != null) {
+                    latestSongLoadingFuture = load(track);
+                } else {
+                    latestSongLoadingFuture = null;
+                }
             }
-        } else {
-            PlayBarWidget.timeBar.setMinimum(0);
-            PlayBarWidget.timeBar.setMaximum(track != null ? track.pcmData != null ? track.pcmData.length : 0 : 0);
         }
         preLoadedTrack = null;
     }
 
     public void preLoad(Track track) {
-        if(preLoadedTrack == track) return;
+        if(preLoadedTrack == track || loadedTrack == track) return;
 
         if(preLoadedTrack != null) {
-            preLoadedTrack.pcmData = null;
+            unload(preLoadedTrack, latestSongPreLoadingFuture);
         }
 
         preLoadedTrack = track;
 
-        if(latestSongPreLoadingFuture != null) {
-            latestSongPreLoadingFuture.cancel(true);
-        }
+        latestSongPreLoadingFuture = load(track);
+    }
 
-        latestSongPreLoadingFuture = songPreLoadingExecutor.submit(() -> {
-            FlacFileParser.parse(track, this);
+    /**
+     * Starts decoding the given track into its {@link Track#pcmBuffer}.
+     */
+    private Future<?> load(Track track) {
+        return songLoadingExecutor.submit(() -> {
+            try {
+                FlacFileParser.parse(track, this);
+            } catch(Exception e) {
+                // cancelled, either because the track changed or it's not going to be played next anymore
+                if(e.getCause() instanceof InterruptedException) return;
+                LOGGER.error("Unknown error", e);
+            }
         });
     }
 
+    /**
+     * Decodes the current track again from scratch, so that it picks up a different playback format.
+     */
+    public void reloadCurrentTrack() {
+        unload(preLoadedTrack, latestSongPreLoadingFuture);
+        unload(loadedTrack, latestSongLoadingFuture);
+        preLoadedTrack = null;
+        latestSongPreLoadingFuture = null;
+
+        loadedTrack = currentSession.getCurrentTrack();
+        latestSongLoadingFuture = loadedTrack != null ? load(loadedTrack) : null;
+    }
+
+    /**
+     * Stops decoding the given track and lets go of its pcm data.
+     */
+    private void unload(Track track, Future<?> loadingFuture) {
+        if(loadingFuture != null) {
+            loadingFuture.cancel(true);
+        }
+        if(track != null) {
+            track.pcmBuffer = null;
+            track.loaded = 0;
+        }
+    }
+
+    /**
+     * Picks the format a track gets decoded to. With native output enabled that's the track's own format as long as the
+     * line supports it, so no conversion is needed at all. Otherwise it's {@link #audioFormat}.
+     */
+    public AudioFormat getPlaybackFormat(StreamInfo streamInfo) {
+        if(!Storage.getNativeOutput()) return audioFormat;
+
+        int bits = streamInfo.getBitsPerSample();
+        // the decoder only outputs these, little endian and with 8 bit samples unsigned
+        if(bits != 8 && bits != 16 && bits != 24) return audioFormat;
+        AudioFormat format = new AudioFormat(
+                bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+                streamInfo.getSampleRate(),
+                bits,
+                streamInfo.getChannels(),
+                streamInfo.getChannels() * bits / 8,
+                streamInfo.getSampleRate(),
+                false);
+
+        for(AudioFormat unsupported : unsupportedFormats) {
+            if(unsupported.matches(format)) return audioFormat;
+        }
+        if(!AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, format))) {
+            return audioFormat;
+        }
+        return format;
+    }
+
+    /**
+     * Converts a {@link PlaybackSession} position to a byte offset in data of the given format.
+     */
+    public long toBufferPosition(int sessionPosition, AudioFormat format) {
+        if(format == audioFormat) return sessionPosition;
+        long frames = sessionPosition / audioFormat.getFrameSize();
+        return Math.round(frames * (double) format.getFrameRate() / audioFormat.getFrameRate()) * format.getFrameSize();
+    }
+
+    /**
+     * Converts a byte offset in data of the given format to a {@link PlaybackSession} position.
+     */
+    public int toSessionPosition(long bufferPosition, AudioFormat format) {
+        if(format == audioFormat) return (int) bufferPosition;
+        long frames = bufferPosition / format.getFrameSize();
+        return (int) Math.round(frames * (double) audioFormat.getFrameRate() / format.getFrameRate()) * audioFormat.getFrameSize();
+    }
+
+    /**
+     * @return the length of the track in {@link PlaybackSession} position units, or 0 if it's not loaded
+     */
+    public int getTrackLength(Track track) {
+        PcmRingBuffer pcmBuffer = track.pcmBuffer;
+        if(pcmBuffer == null) return 0;
+        return toSessionPosition(pcmBuffer.length, pcmBuffer.format);
+    }
+
+    /**
+     * Closes the line and opens it again with the given format. If that doesn't work, the format is marked as
+     * unsupported, the line goes back to {@link #audioFormat} and the current track gets decoded again to match.
+     *
+     * @return whether the line is now in the given format
+     */
+    private boolean reopenLine(AudioFormat format) {
+        sourceDataLine.drain();
+        sourceDataLine.close();
+        try {
+            int bufferSize = getLineBufferSize(format);
+            sourceDataLine = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format, bufferSize));
+            sourceDataLine.open(format, bufferSize);
+            sourceDataLine.start();
+            lineFormat = format;
+            LOGGER.info("Opened line as {}", format);
+            return true;
+        } catch(LineUnavailableException | IllegalArgumentException e) {
+            if(format == audioFormat) {
+                canPlay = false;
+                LOGGER.error("Can't play!", e);
+                return false;
+            }
+            LOGGER.warn("Can't open line as {}, converting instead", format, e);
+            unsupportedFormats.add(format);
+            reopenLine(audioFormat);
+            reloadCurrentTrack();
+            return false;
+        }
+    }
+
+    /**
+     * @return a line buffer size that holds as much time as {@link #BUFFER_SIZE} does in {@link #audioFormat}
+     */
+    private int getLineBufferSize(AudioFormat format) {
+        double seconds = BUFFER_SIZE / (audioFormat.getFrameRate() * audioFormat.getFrameSize());
+        int size = (int) (seconds * format.getFrameRate() * format.getFrameSize());
+        return size - (size % format.getFrameSize());
+    }
+
     public void setPlaying(PlaybackSessionUpdateMessage updateBuffer, boolean playing) {
         if (!canPlay) return;
         this.currentSession.setPlaying(updateBuffer, playing);
@@ -268,6 +405,14 @@ public class Audio {
         public void run() {
             try {
                 int bufferSize = audio.sourceDataLine.getBufferSize();
+                bufferSize -= bufferSize % audio.lineFormat.getFrameSize();
+                // pcm data is already stored in the line's format (see FlacFileParser), so it can be handed over as is
+                byte[] buffer = new byte[bufferSize];
+                // where playback is in the current pcm buffer. Kept separately from the session position, which may be
+                // in another format and would drift from rounding if it was converted back and forth on every chunk
+                PcmRingBuffer lastPcmBuffer = null;
+                int lastPosition = -1;
+                long bufferPosition = 0;
                 while (true) {
                     if(!audio.canPlay) return;
 
@@ -281,21 +426,35 @@ public class Audio {
                         continue;
                     }
 
-                    if(currentTrack.pcmData == null) {
+                    PcmRingBuffer pcmBuffer = currentTrack.pcmBuffer;
+                    if(pcmBuffer == null) {
                         synchronized(currentTrack) {
                             currentTrack.wait();
                         }
                         continue;
                     }
 
-                    byte[] buffer = new byte[bufferSize];
-                    int wrote = 0;
+                    AudioFormat format = pcmBuffer.format;
+                    if(!format.matches(audio.lineFormat)) {
+                        if(!audio.reopenLine(format)) continue;
+                        bufferSize = audio.sourceDataLine.getBufferSize();
+                        bufferSize -= bufferSize % format.getFrameSize();
+                        buffer = new byte[bufferSize];
+                    }
+
+                    int wrote;
                     synchronized(audio.audioLock) {
-                        if(audio.currentSession.getPosition() >= currentTrack.pcmData.length - (audio.audioFormat.getSampleSizeInBits() * audio.audioFormat.getSampleRate() / 8)) {
+                        int position = audio.currentSession.getPosition();
+                        if(pcmBuffer != lastPcmBuffer || position != lastPosition) {
+                            bufferPosition = audio.toBufferPosition(position, format);
+                        }
+
+                        // half a second before the end
+                        if(bufferPosition >= pcmBuffer.length - (long) (format.getFrameRate() * format.getFrameSize() / 2)) {
                             audio.preLoadNextTrack();
                         }
 
-                        if(audio.currentSession.getPosition() >= currentTrack.pcmData.length - 4) {
+                        if(bufferPosition >= pcmBuffer.length - format.getFrameSize()) {
                             audio.nextTrack();
                             continue;
                         }
@@ -303,33 +462,32 @@ public class Audio {
                         PlayBarWidget.timeBar.update();
                         if(audio.mpris != null) {
                             try {
-                                double positionSeconds = audio.currentSession.getPosition() / audio.audioFormat.getSampleRate() / audio.audioFormat.getChannels() / audio.audioFormat.getSampleSizeInBits() * 8.0;
+                                double positionSeconds = bufferPosition / format.getFrameRate() / format.getFrameSize();
                                 audio.mpris.setPosition((int) (positionSeconds * 1_000_000));
                             } catch(Exception ignored) {}
                         }
 
-                        for (int i = 0; i < bufferSize - 3 &&
-                                i + audio.currentSession.getPosition() < currentTrack.pcmData.length - 3; i += 4) {
-                            // RIFF is little endian...
-                            int position = audio.currentSession.getPosition();
-
+                        wrote = pcmBuffer.read(bufferPosition, buffer, 0, bufferSize);
+                        if(wrote > 0) {
                             boolean justReconnectedAndOwnedSessionBefore = !audio.currentSession.acknowledgedByServer && audio.currentSession.getOwnerId() == ServerConnection.oldClientId;
                             boolean justCreatedSession = !audio.currentSession.acknowledgedByServer && audio.currentSession.getOwnerId() == -1;
                             // is ServerConnection.INSTANCE is null, the client never connected to the server in the first place
                             boolean ownsSession = ServerConnection.INSTANCE == null || audio.currentSession.getOwnerId() == ServerConnection.INSTANCE.clientId;
-                            if (ownsSession || justReconnectedAndOwnedSessionBefore || justCreatedSession) {
-                                // L
-                                buffer[i + 1] = currentTrack.pcmData[position];
-                                buffer[i] = currentTrack.pcmData[position + 1];
-
-                                // R
-                                buffer[i + 3] = currentTrack.pcmData[position + 2];
-                                buffer[i + 2] = currentTrack.pcmData[position + 3];
+                            if (!ownsSession && !justReconnectedAndOwnedSessionBefore && !justCreatedSession) {
+                                // keep time with the owner without actually playing anything
+                                Arrays.fill(buffer, 0, wrote, (byte) 0);
                             }
-                            audio.currentSession.setPosition(null, position + 4, false);
-                            wrote += 4;
+                            bufferPosition += wrote;
+                            lastPosition = audio.toSessionPosition(bufferPosition, format);
+                            lastPcmBuffer = pcmBuffer;
+                            audio.currentSession.setPosition(null, lastPosition, false);
                         }
                     }
+                    if(wrote <= 0) {
+                        // the decoder didn't get there yet (or is going back to it after a jump)
+                        pcmBuffer.awaitData(bufferPosition);
+                        continue;
+                    }
                     // do NOT move this in the synchronized block (it won't let go and will freeze
                     // the entire gui on ChangeSessionMenu)
                     audio.sourceDataLine.write(buffer, 0, wrote);
@@ -424,8 +582,9 @@ public class Audio {
                             }
                         }
                         double seconds;
-                        if(track.pcmData != null) {
-                            seconds = track.pcmData.length / audioFormat.getSampleRate() / audioFormat.getChannels() / audioFormat.getSampleSizeInBits() * 8.0;
+                        PcmRingBuffer pcmBuffer = track.pcmBuffer;
+                        if(pcmBuffer != null) {
+                            seconds = pcmBuffer.length / pcmBuffer.format.getFrameRate() / pcmBuffer.format.getFrameSize();
                         } else {
                             seconds = 0;
                         }
@@ -440,7 +599,7 @@ public class Audio {
                     // PLAYBACK STATUS
                     if(track == null) {
                         mpris.setPlaybackStatus(PlaybackStatus.STOPPED);
-                    } else if(session.getPlaying() && track.pcmData != null) {
+                    } else if(session.getPlaying() && track.pcmBuffer != null) {
                         mpris.setPlaybackStatus(PlaybackStatus.PLAYING);
                     } else {
                         mpris.setPlaybackStatus(PlaybackStatus.PAUSED);
@@ -21,149 +21,549 @@ import dev.blackilykat.messages.PlaybackSessionUpdateMessage;
 import dev.blackilykat.widgets.filters.LibraryFilter;
 import dev.blackilykat.widgets.filters.LibraryFilterOption;
 import dev.blackilykat.widgets.tracklist.Order;
-import dev.blackilykat.widgets.tracklist.TrackDataEntry;
 import dev.blackilykat.widgets.tracklist.TrackDataHeader;
 import org.kc7bfi.jflac.FLACDecoder;
+import org.kc7bfi.jflac.io.MappedFileInputStream;
 import org.kc7bfi.jflac.metadata.Metadata;
 import org.kc7bfi.jflac.metadata.VorbisComment;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.zip.CRC32;
-import java.util.zip.CheckedInputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static dev.blackilykat.Main.LOGGER;
 
 public class Library {
     public static Library INSTANCE = null;
     public Audio audio = null;
-    public List<Track> tracks = new ArrayList<>();
-    public List<Track> filteredTracks = new ArrayList<>();
+    /**
+     * What other threads read the library through. Swapped for a new one every time the library changes.
+     */
+    private volatile LibrarySnapshot snapshot = LibrarySnapshot.EMPTY;
+    /**
+     * Held by anything that changes the library. Readers go through {@link #snapshot} and never need it.
+     */
+    private final Object writeLock = new Object();
+    /**
+     * Held by {@link #reloadAll} the whole time, so two of them don't read the library at once
+     */
+    private final Object reloadLock = new Object();
+    /**
+     * Files that changed while {@link #reloadAll} was reading the library, which get updated again once it's done so
+     * they don't get lost under what it read. Null when it isn't reloading.
+     */
+    private Set<File> changedWhileReloading = null;
+    /**
+     * Names of files the app itself is writing into the library. {@link LibraryWatcher} leaves them alone until
+     * they get handed to {@link #updateTrack(File, long)} or {@link #addTracks}, so it doesn't read them half written.
+     */
+    private final Set<String> beingWritten = ConcurrentHashMap.newKeySet();
+    // the rest is only touched while holding writeLock, and gets copied into the next snapshot by publish()
+    private List<Track> tracks = new ArrayList<>();
+    private List<Track> filteredTracks = new ArrayList<>();
+    /**
+     * File name to where the track is in {@link #tracks}
+     */
+    private Map<String, Integer> trackIndexes = new HashMap<>();
+    /**
+     * Tracks that got added to or removed from {@link #filteredTracks} since the last snapshot, which the song list
+     * gets told about once the snapshot that has them is out
+     */
+    private final List<Track> shownTracks = new ArrayList<>();
+    private final List<Track> hiddenTracks = new ArrayList<>();
+    /**
+     * Metadata of everything in {@link #tracks}
+     */
+    public volatile MetadataStore metadata = new MetadataStore();
+    /**
+     * Sort keys of everything in {@link #metadata}
+     */
+    private SortIndex sortIndex = new SortIndex(metadata);
+    /**
+     * The headers {@link #filteredTracks} is currently sorted by, or null if it isn't sorted. Along with
+     * {@link #sortedKeys} and {@link #sortedOrder} it's what lets flipping the order just reverse it.
+     */
+    private List<TrackDataHeader> sortedBy = null;
+    private List<String> sortedKeys = null;
+    private Order sortedOrder = null;
     public boolean loaded = false;
 
     public Library() {
         this.reloadAll(null);
     }
 
-    public int findIndex(File file) {
-        for (int i = 0; i < tracks.size(); i++) {
-            if (tracks.get(i).getFile().equals(file)) return i;
-        }
-        return -1;
+    /**
+     * @return the library as it is right now. It won't change, call this again to see later changes
+     */
+    public LibrarySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the track with this file name, or null if there's none
+     */
+    public Track getTrack(String fileName) {
+        return snapshot.getTrack(fileName);
+    }
+
+    /**
+     * @return where the track is in the filtered tracks, or -1 if it isn't there
+     */
+    public int filteredIndexOf(Track track) {
+        return snapshot.filteredIndexOf(track);
     }
 
     public Track getItem(int index) {
         try {
-            return tracks.get(index);
+            return snapshot.tracks.get(index);
         } catch (IndexOutOfBoundsException e) {
             return null;
         }
     }
 
-    public synchronized void reloadTracks() {
-        loaded = false;
-        tracks = new ArrayList<>();
-        int cachedTracks = 0;
+    /**
+     * Marks a file as being written by the app until it's handed to {@link #updateTrack(File, long)} or
+     * {@link #addTracks}, or until {@link #stopWriting} if writing it fails.
+     *
+     * @return false if something else is already writing it
+     */
+    public boolean startWriting(String fileName) {
+        return beingWritten.add(fileName);
+    }
+
+    public void stopWriting(String fileName) {
+        beingWritten.remove(fileName);
+    }
+
+    public boolean isBeingWritten(String fileName) {
+        return beingWritten.contains(fileName);
+    }
+
+    private int findIndex(File file) {
+        Integer index = trackIndexes.get(file.getName());
+        if(index == null || !tracks.get(index).getFile().equals(file)) return -1;
+        return index;
+    }
+
+    /**
+     * Makes what changed visible to everyone else. Has to be called while holding {@link #writeLock}.
+     */
+    private void publish() {
+        LibrarySnapshot newSnapshot = new LibrarySnapshot(tracks, filteredTracks);
+        snapshot = newSnapshot;
+        if(Main.songListWidget != null) {
+            if(hiddenTracks.size() + shownTracks.size() > 1) {
+                // where each one goes depends on the others, not worth working out one panel at a time
+                Main.songListWidget.refreshTracks();
+            } else if(!hiddenTracks.isEmpty()) {
+                Main.songListWidget.removeTrack(hiddenTracks.getFirst());
+            } else if(!shownTracks.isEmpty()) {
+                Track track = shownTracks.getFirst();
+                Main.songListWidget.addTrack(track, newSnapshot.filteredIndexOf(track));
+            }
+        }
+        hiddenTracks.clear();
+        shownTracks.clear();
+    }
+
+    /**
+     * Reads every track in the library, from {@link Storage#trackCache} if they didn't change since.
+     *
+     * @return the tracks, or null if it got interrupted
+     */
+    private Track[] readTracks() {
+        List<File> files = new ArrayList<>();
         for(File result : search(Storage.LIBRARY)) {
             if(Audio.isSupported(result)) {
-                Track track;
-                String filename = result.getName();
-                if(Storage.trackCache.containsKey(filename) && Storage.trackCache.get(filename).lastModified == result.lastModified()) {
-                    track = Storage.trackCache.get(filename);
-                    cachedTracks++;
-                } else {
-                    LOGGER.warn("{} not cached!", filename);
-                    track = new Track(result);
-                    try {
-                        CheckedInputStream inputStream = new CheckedInputStream(new FileInputStream(track.getFile()), new CRC32());
-                        // 1MB
-                        byte[] buffer = new byte[1048576];
-                        while(inputStream.read(buffer, 0, buffer.length) >= 0) {}
-                        track.checksum = inputStream.getChecksum().getValue();
-                    } catch(IOException ignored) {
+                files.add(result);
+            }
+        }
+
+        Track[] newTracks = new Track[files.size()];
+        List<File> uncached = new ArrayList<>();
+        List<Integer> uncachedIndexes = new ArrayList<>();
+        for(int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            Track cached = Storage.trackCache.get(file.getName());
+            if(cached != null && cached.lastModified == file.lastModified()) {
+                newTracks[i] = cached;
+            } else {
+                LOGGER.warn("{} not cached!", file.getName());
+                uncached.add(file);
+                uncachedIndexes.add(i);
+            }
+        }
+        LOGGER.info("{} tracks cached", files.size() - uncached.size());
+
+        if(!uncached.isEmpty()) {
+            LibraryScanner scanner = new LibraryScanner(new LibraryScanner.ProgressListener() {
+                private long lastLog = System.nanoTime();
+
+                @Override
+                public synchronized void onProgress(LibraryScanner.Progress progress) {
+                    // once a second is plenty
+                    if(System.nanoTime() - lastLog < 1_000_000_000L) return;
+                    lastLog = System.nanoTime();
+                    LOGGER.info("Scanned {}/{} tracks", progress.filesDone(), progress.filesTotal());
+                }
+            });
+            List<Track> scanned;
+            try {
+                scanned = scanner.scan(uncached);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.warn("Library scan interrupted, keeping old tracks");
+                return null;
+            }
+            for(int i = 0; i < scanned.size(); i++) {
+                newTracks[uncachedIndexes.get(i)] = scanned.get(i);
+            }
+            LibraryScanner.Progress progress = scanner.getProgress();
+            LOGGER.info(String.format("Scanned %d tracks in %.1f s (%.1f files/s, %.1f MB/s)", progress.filesDone(),
+                    progress.elapsedNanos() / 1_000_000_000.0, progress.filesPerSecond(), progress.megabytesPerSecond()));
+        }
+
+        return newTracks;
+    }
+
+    /**
+     * Reads the whole library again and runs it through the filters and sorting from scratch. Other threads can keep
+     * reading the old library and even change it while this is reading files, those changes get redone afterwards.
+     */
+    public void reloadAll(PlaybackSessionUpdateMessage updateBuffer) {
+        synchronized(reloadLock) {
+            synchronized(writeLock) {
+                loaded = false;
+                changedWhileReloading = new HashSet<>();
+            }
+
+            Track[] newTracks = null;
+            Set<File> changed;
+            try {
+                newTracks = readTracks();
+            } finally {
+                synchronized(writeLock) {
+                    if(newTracks != null) {
+                        // the cache can hand back the same objects the old store has, so this can't happen earlier
+                        MetadataStore newMetadata = new MetadataStore();
+                        for(Track track : newTracks) {
+                            newMetadata.add(track);
+                        }
+                        metadata = newMetadata;
+                        sortIndex = new SortIndex(newMetadata);
+                        tracks = new ArrayList<>(List.of(newTracks));
+                        Map<String, Integer> newTrackIndexes = new HashMap<>();
+                        for(int i = 0; i < newTracks.length; i++) {
+                            newTrackIndexes.put(newTracks[i].getFile().getName(), i);
+                        }
+                        trackIndexes = newTrackIndexes;
+                        Storage.trackCache.clear();
+                        for(Track track : tracks) {
+                            Storage.trackCache.put(track.getFile().getName(), track);
+                        }
+                        reloadFilters(updateBuffer);
+                        reloadSorting();
                     }
+                    changed = changedWhileReloading;
+                    changedWhileReloading = null;
+                    loaded = true;
+                }
+            }
+
+            for(File file : changed) {
+                updateTrack(file);
+            }
+        }
+    }
+
+    /**
+     * Brings a single file up to date after it got added, changed or deleted, without rescanning the rest of the
+     * library or running every track through the filters again. Does nothing if the library already matches what's
+     * on disk, so it's fine to call it more than once for the same change.
+     */
+    public void updateTrack(File file) {
+        updateTrack(file, -1);
+    }
+
+    /**
+     * Same as {@link #updateTrack(File)}, for when the checksum is already known because the file was just written.
+     *
+     * @param checksum CRC32 of the whole file, or -1 to compute it
+     */
+    public void updateTrack(File file, long checksum) {
+        stopWriting(file.getName());
+        Track current = getTrack(file.getName());
+        boolean exists = file.isFile() && Audio.isSupported(file);
+        if(current == null && !exists) return;
+        if(current != null && exists && current.lastModified == file.lastModified()) return;
+
+        // reading the file can take a while, no reason to hold the lock for it
+        Track track = null;
+        if(exists) {
+            track = new Track(file);
+            track.checksum = checksum;
+            if(checksum == -1) {
+                try {
+                    track.checksum = LibraryScanner.checksum(file);
+                } catch(IOException e) {
+                    LOGGER.error("Could not compute checksum of {}", file.getName(), e);
                 }
-                tracks.add(track);
             }
         }
-        LOGGER.info("{} tracks cached", cachedTracks);
-        Storage.trackCache.clear();
-        for(Track track : tracks) {
-            Storage.trackCache.put(track.getFile().getName(), track);
+
+        synchronized(writeLock) {
+            if(changedWhileReloading != null) {
+                changedWhileReloading.add(file);
+                return;
+            }
+            int index = findIndex(file);
+            Track old = index == -1 ? null : tracks.get(index);
+            // something else might have gotten to it first
+            if(old == null && track == null) return;
+            if(old != null && track != null && old.lastModified == track.lastModified) return;
+            replaceTrack(file, old, index, track);
+            publish();
         }
-        loaded = true;
     }
 
-    public synchronized void reloadAll(PlaybackSessionUpdateMessage updateBuffer) {
-        reloadTracks();
-        reloadFilters(updateBuffer);
-        reloadSorting();
-        if(Main.songListWidget != null) {
-            Main.songListWidget.refreshTracks();
+    /**
+     * Adds tracks that were already read, like the ones an import just copied over, without reading them again.
+     * Anything already in the library as it is on disk gets skipped.
+     */
+    public void addTracks(List<Track> newTracks) {
+        for(Track track : newTracks) {
+            stopWriting(track.getFile().getName());
+        }
+        synchronized(writeLock) {
+            for(Track track : newTracks) {
+                if(changedWhileReloading != null) {
+                    changedWhileReloading.add(track.getFile());
+                    continue;
+                }
+                int index = findIndex(track.getFile());
+                Track old = index == -1 ? null : tracks.get(index);
+                if(old != null && old.lastModified == track.lastModified) continue;
+                replaceTrack(track.getFile(), old, index, track);
+            }
+            publish();
         }
     }
 
-    public void reloadFilters(PlaybackSessionUpdateMessage updateBuffer) {
-        filteredTracks.clear();
-        filteredTracks.addAll(tracks);
-        if(audio == null || Main.libraryFiltersWidget == null) return;
+    /**
+     * @param old the track currently at index, or null if there's none
+     * @param track the new track, or null if the file is gone
+     */
+    private void replaceTrack(File file, Track old, int index, Track track) {
+        // has to happen while the old track is still in the index
+        boolean filtersUpdated = old == null || removeFromFilters(old);
+        if(old != null) {
+            sortIndex.remove(old);
+            metadata.remove(old);
+        }
+        if(track != null) {
+            metadata.add(track);
+            sortIndex.add(track);
+        }
+
+        if(old != null && track != null) {
+            LOGGER.info("Updating track {}", file.getName());
+            tracks.set(index, track);
+        } else if(old != null) {
+            LOGGER.info("Removing track {}", file.getName());
+            // the order of tracks doesn't matter, so the last one takes its place instead of shifting every index
+            Track last = tracks.removeLast();
+            trackIndexes.remove(file.getName());
+            if(last != old) {
+                tracks.set(index, last);
+                trackIndexes.put(last.getFile().getName(), index);
+            }
+        } else {
+            LOGGER.info("Adding track {}", file.getName());
+            trackIndexes.put(file.getName(), tracks.size());
+            tracks.add(track);
+        }
+
+        if(track != null) {
+            Storage.trackCache.put(file.getName(), track);
+        } else {
+            Storage.trackCache.remove(file.getName());
+        }
+
+        if(!filtersUpdated) {
+            // a selected option is gone, so what the other filters match can change in ways that aren't worth
+            // working out one track at a time
+            reloadFilters(null);
+            reloadSorting();
+            return;
+        }
+        if(track != null) {
+            addToFilters(track);
+        }
+    }
+
+    private boolean removeFromFilters(Track track) {
+        if(filteredTracks.remove(track)) {
+            hiddenTracks.add(track);
+        }
+        if(audio == null || Main.libraryFiltersWidget == null) return true;
 
+        BitSet input = metadata.allTracks();
+        input.clear(track.id);
         for(LibraryFilter filter : audio.currentSession.getLibraryFilters()) {
-            LibraryFilterOption[] oldOptions = filter.getOptions();
-            filter.reloadOptions();
-            boolean anyPositive = false;
-            for(LibraryFilterOption oldOption : oldOptions) {
-                LibraryFilterOption newOption = filter.getOption(oldOption.value);
-                if(newOption == null) continue;
-
-                newOption.setState(oldOption.getState(), false);
-                if(newOption.getState() == LibraryFilterOption.State.POSITIVE) {
-                    anyPositive = true;
-                }
+            boolean wasMatching = filter.matchingIds.get(track.id);
+            if(!filter.trackRemoved(track, input)) return false;
+            if(!wasMatching) break;
+            input = filter.matchingIds;
+        }
+        return true;
+    }
+
+    private void addToFilters(Track track) {
+        if(audio != null && Main.libraryFiltersWidget != null) {
+            for(LibraryFilter filter : audio.currentSession.getLibraryFilters()) {
+                filter.trackAdded(track);
+                if(!filter.matchingIds.get(track.id)) return;
             }
+        }
 
-            if(!anyPositive) {
-                filter.getOption(LibraryFilter.OPTION_EVERYTHING).setState(LibraryFilterOption.State.POSITIVE, true);
+        filteredTracks.add(sortedIndex(track), track);
+        shownTracks.add(track);
+    }
+
+    /**
+     * @return where the track should go in {@link #filteredTracks} to keep it sorted
+     */
+    private int sortedIndex(Track track) {
+        if(sortedBy == null) return filteredTracks.size();
+        return sortIndex.insertionIndex(filteredTracks, track, sortedBy, sortedOrder);
+    }
+
+    public void reloadFilters(PlaybackSessionUpdateMessage updateBuffer) {
+        reloadFilters(updateBuffer, null);
+    }
+
+    /**
+     * Runs the tracks through the filters again, starting from the given one. The filters before it keep what they
+     * matched since nothing they depend on changed, and the ones after it only get their options diffed.
+     *
+     * @param changed the filter whose options just changed state, or null to redo every filter
+     */
+    public void reloadFilters(PlaybackSessionUpdateMessage updateBuffer, LibraryFilter changed) {
+        synchronized(writeLock) {
+            sortedBy = null;
+            if(audio == null || Main.libraryFiltersWidget == null) {
+                filteredTracks.clear();
+                filteredTracks.addAll(tracks);
+                publish();
+                return;
             }
 
-            filter.session.sendFilterUpdate(updateBuffer);
+            LibraryFilter[] filters = audio.currentSession.getLibraryFilters();
+            int start = 0;
+            for(int i = 0; i < filters.length; i++) {
+                if(filters[i] == changed) {
+                    start = i;
+                    break;
+                }
+            }
+
+            BitSet matching = start == 0 ? metadata.allTracks() : filters[start - 1].matchingIds;
+            for(int i = start; i < filters.length; i++) {
+                LibraryFilter filter = filters[i];
+                // what the changed filter gets is the same as before, so are its options
+                if(filter != changed) {
+                    boolean updated = filter.updateOptions();
+
+                    boolean anyPositive = false;
+                    for(LibraryFilterOption option : filter.getOptions()) {
+                        if(option.getState() == LibraryFilterOption.State.POSITIVE) {
+                            anyPositive = true;
+                            break;
+                        }
+                    }
+                    if(!anyPositive) {
+                        LibraryFilterOption everything = filter.getOption(LibraryFilter.OPTION_EVERYTHING);
+                        everything.setState(LibraryFilterOption.State.POSITIVE, false);
+                        if(everything.button != null) {
+                            everything.button.repaint();
+                        }
+                        updated = true;
+                    }
+
+                    if(updated || changed == null) {
+                        filter.session.sendFilterUpdate(updateBuffer);
+                    }
+                }
+
+                filter.reloadMatching(matching);
+                matching = filter.matchingIds;
+            }
 
-            filter.reloadMatching();
             filteredTracks.clear();
-            filteredTracks.addAll(filter.matchingTracks);
+            for(int id = matching.nextSetBit(0); id >= 0; id = matching.nextSetBit(id + 1)) {
+                filteredTracks.add(metadata.getTrack(id));
+            }
+            publish();
         }
-
     }
 
-    @SuppressWarnings({"rawtypes", "unchecked"})
     public void reloadSorting() {
-        if(Main.songListWidget != null) {
-            Main.songListWidget.refreshTracks();
-        }
-        if(audio == null || audio.currentSession == null || audio.currentSession.getSortingHeader() == null) return;
-
-        int dataIndex = Main.songListWidget.dataHeaders.indexOf(audio.currentSession.getSortingHeader());
-        final int multiplier = audio.currentSession.getSortingOrder() == Order.DESCENDING ? 1 : -1;
+        synchronized(writeLock) {
+            List<TrackDataHeader> headers = getSortingHeaders();
+            if(headers == null) {
+                if(Main.songListWidget != null) {
+                    Main.songListWidget.refreshTracks();
+                }
+                return;
+            }
 
-        int i = 0;
-        for(Track track : filteredTracks.stream().sorted((o1, o2) -> {
-            if(o1.panel == null || o2.panel == null) return 0;
+            Order order = audio.currentSession.getSortingOrder();
+            List<String> keys = new ArrayList<>(headers.size());
+            for(TrackDataHeader header : headers) {
+                keys.add(header.metadataKey);
+            }
+            if(headers.equals(sortedBy) && keys.equals(sortedKeys)) {
+                if(order != sortedOrder) {
+                    Collections.reverse(filteredTracks);
+                }
+            } else {
+                sortIndex.sort(filteredTracks, headers, order);
+            }
+            sortedBy = headers;
+            sortedKeys = keys;
+            sortedOrder = order;
+            publish();
 
-            // jank... But if I add <?> it doesn't compile cause it doesn't know if they're the same. And obviously
-            // I don't know the type at compile time. I do however know that they are the same type for sure, so just
-            // avoiding generics here entirely fixes the problem
-            TrackDataEntry e1 = o1.panel.dataEntries.get(dataIndex);
-            TrackDataEntry e2 = o2.panel.dataEntries.get(dataIndex);
-            return e1.compare(e2) * multiplier;
-        }).toList()) {
-            // i need it as an arraylist so i just copy over the results
-            filteredTracks.set(i++, track);
+            Main.songListWidget.refreshTracks();
         }
+    }
 
-        Main.songListWidget.refreshTracks();
+    /**
+     * @return the header the current session is sorted by followed by every other one as secondary keys in the order
+     * they're shown in, or null if it isn't sorted
+     */
+    private List<TrackDataHeader> getSortingHeaders() {
+        if(audio == null || audio.currentSession == null || audio.currentSession.getSortingHeader() == null
+                || Main.songListWidget == null) {
+            return null;
+        }
+        TrackDataHeader primary = audio.currentSession.getSortingHeader();
+        List<TrackDataHeader> headers = new ArrayList<>();
+        headers.add(primary);
+        for(TrackDataHeader header : Main.songListWidget.dataHeaders) {
+            if(header != primary) {
+                headers.add(header);
+            }
+        }
+        return headers;
     }
 
     private List<File> search(File path) {
@@ -196,9 +596,9 @@ public class Library {
         String album = null;
         String artists = null;
 
-        try {
-            FLACDecoder decoder = new FLACDecoder(new FileInputStream(track));
-            Metadata[] metadataList = decoder.readMetadata();
+        try(MappedFileInputStream inputStream = new MappedFileInputStream(track)) {
+            FLACDecoder decoder = new FLACDecoder(inputStream);
+            Metadata[] metadataList = decoder.scanMetadata();
             for(Metadata metadata : metadataList) {
                 if(!(metadata instanceof VorbisComment commentMetadata)) continue;
 
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static dev.blackilykat.Main.LOGGER;
+
+/**
+ * Copies a bunch of files into the library at once, each on its own virtual thread, and adds them to the library in
+ * one go once they're all there. The checksum gets computed while copying, so nothing needs to read the files again.
+ */
+public class LibraryImporter {
+    private static final byte[] FLAC_MAGIC = new byte[]{'f', 'L', 'a', 'C'};
+
+    private final Semaphore copies = new Semaphore(LibraryScanner.MAX_CONCURRENT_READS);
+    private final AtomicInteger filesDone = new AtomicInteger(0);
+    private final AtomicLong bytesDone = new AtomicLong(0);
+    private volatile boolean cancelled = false;
+    private int filesTotal;
+    private long startTime;
+
+    /**
+     * Copies every file that looks like a flac file into the library, adds them to it and queues an ADD action for
+     * each. Blocks until it's done or gets {@link #cancel()}led, in which case whatever got copied so far still gets
+     * added.
+     *
+     * @return the tracks that were added
+     */
+    public List<Track> importFiles(List<File> files) {
+        filesTotal = files.size();
+        filesDone.set(0);
+        bytesDone.set(0);
+        startTime = System.nanoTime();
+
+        List<Track> imported = new ArrayList<>();
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Track>> futures = new ArrayList<>(files.size());
+            for(File file : files) {
+                futures.add(executor.submit(() -> importFile(file)));
+            }
+            for(Future<Track> future : futures) {
+                try {
+                    Track track = future.get();
+                    if(track != null) {
+                        imported.add(track);
+                    }
+                } catch(ExecutionException e) {
+                    LOGGER.error("Could not import a track", e.getCause());
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                }
+            }
+        }
+
+        LibraryScanner.Progress progress = getProgress();
+        LOGGER.info(String.format("Imported %d/%d tracks in %.1f s (%.1f MB/s)%s", imported.size(), filesTotal,
+                progress.elapsedNanos() / 1_000_000_000.0, progress.megabytesPerSecond(), cancelled ? ", cancelled" : ""));
+
+        if(!imported.isEmpty()) {
+            Library.INSTANCE.addTracks(imported);
+            List<LibraryAction> actions = new ArrayList<>(imported.size());
+            for(Track track : imported) {
+                actions.add(new LibraryAction(track.getFile().getName(), LibraryAction.Type.ADD));
+            }
+            Storage.pushPendingLibraryActions(actions);
+        }
+        return imported;
+    }
+
+    /**
+     * Stops copying. Files that are halfway through get deleted, the ones that are already done stay.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return how far the latest {@link #importFiles} got
+     */
+    public LibraryScanner.Progress getProgress() {
+        return new LibraryScanner.Progress(filesDone.get(), filesTotal, bytesDone.get(), System.nanoTime() - startTime);
+    }
+
+    private Track importFile(File file) throws InterruptedException {
+        try {
+            if(cancelled) return null;
+            if(!file.getName().endsWith(".flac")) {
+                LOGGER.warn("Skipping {} (no .flac extension)", file.getName());
+                return null;
+            }
+
+            copies.acquire();
+            try {
+                if(cancelled) return null;
+                try(InputStream inputStream = new FileInputStream(file)) {
+                    byte[] actualBytes = inputStream.readNBytes(FLAC_MAGIC.length);
+                    if(!Arrays.equals(FLAC_MAGIC, actualBytes)) {
+                        LOGGER.warn("Skipping {} (no fLaC magic)", file.getName());
+                        return null;
+                    }
+                }
+
+                File destination = new File(Storage.LIBRARY, Library.getNewFileName(file));
+                if(!Library.INSTANCE.startWriting(destination.getName())) {
+                    LOGGER.info("Skipping {} ({} is already being written)", file.getName(), destination.getName());
+                    return null;
+                }
+                boolean copied = false;
+                try {
+                    long checksum;
+                    try(InputStream inputStream = new FileInputStream(file)) {
+                        checksum = copy(inputStream, destination);
+                    } catch(FileAlreadyExistsException e) {
+                        //TODO prompt user for confirmation, for now it's a good enough guess to not add it since it
+                        //     takes the filename, artist and album to build the filename
+                        LOGGER.info("Skipping {} ({} already exists)", file.getName(), destination.getName());
+                        return null;
+                    } catch(InterruptedIOException e) {
+                        return null;
+                    } catch(IOException e) {
+                        LOGGER.error("Could not import {}", file.getName(), e);
+                        return null;
+                    }
+
+                    Track track = new Track(destination);
+                    track.checksum = checksum;
+                    copied = true;
+                    return track;
+                } finally {
+                    // the ones that made it stay marked until addTracks gets them
+                    if(!copied) {
+                        Library.INSTANCE.stopWriting(destination.getName());
+                    }
+                }
+            } finally {
+                copies.release();
+            }
+        } catch(IOException e) {
+            LOGGER.error("Could not read {}", file.getName(), e);
+            return null;
+        } finally {
+            filesDone.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes everything in the stream to a new file, computing its CRC32 along the way. Stops and deletes the file if
+     * the import gets cancelled halfway through.
+     *
+     * @return the CRC32 of the file, same as {@link LibraryScanner#checksum(File)} would give
+     * @throws FileAlreadyExistsException if the destination already exists, in which case it is left alone
+     * @throws InterruptedIOException if it got cancelled
+     */
+    private long copy(InputStream inputStream, File destination) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try(OutputStream outputStream = Files.newOutputStream(destination.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            int read;
+            while((read = inputStream.read(buffer)) != -1) {
+                if(cancelled) throw new InterruptedIOException("Import cancelled");
+                crc.update(buffer, 0, read);
+                outputStream.write(buffer, 0, read);
+                // only what actually gets copied, skipped files would make it look faster than it is
+                bytesDone.addAndGet(read);
+            }
+        } catch(FileAlreadyExistsException e) {
+            throw e;
+        } catch(IOException e) {
+            destination.delete();
+            throw e;
+        }
+        return crc.getValue();
+    }
+}
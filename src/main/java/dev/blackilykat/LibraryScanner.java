@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static dev.blackilykat.Main.LOGGER;
+
+/**
+ * Reads the metadata and checksum of a bunch of files at once, each on its own virtual thread. Only
+ * {@link #MAX_CONCURRENT_READS} of them touch the disk at the same time, since past that it just seeks back and forth.
+ */
+public class LibraryScanner {
+    public static final int MAX_CONCURRENT_READS = 8;
+    /**
+     * Size of each mapped region the checksum gets computed over, so huge files don't need to be mapped all at once
+     */
+    private static final long CHECKSUM_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final Semaphore reads = new Semaphore(MAX_CONCURRENT_READS);
+    private final ProgressListener listener;
+    private final AtomicInteger filesDone = new AtomicInteger(0);
+    private final AtomicLong bytesDone = new AtomicLong(0);
+    private int filesTotal;
+    private long startTime;
+
+    public LibraryScanner(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Makes a track out of every file, blocking until all of them are done.
+     *
+     * @return the tracks, in the same order as the files
+     */
+    public List<Track> scan(List<File> files) throws InterruptedException {
+        filesTotal = files.size();
+        filesDone.set(0);
+        bytesDone.set(0);
+        startTime = System.nanoTime();
+
+        List<Track> results = new ArrayList<>(files.size());
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Track>> futures = new ArrayList<>(files.size());
+            for(File file : files) {
+                futures.add(executor.submit(() -> scanFile(file)));
+            }
+            for(Future<Track> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch(ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                } catch(InterruptedException e) {
+                    executor.shutdownNow();
+                    throw e;
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return how far the latest {@link #scan} got
+     */
+    public Progress getProgress() {
+        return new Progress(filesDone.get(), filesTotal, bytesDone.get(), System.nanoTime() - startTime);
+    }
+
+    private Track scanFile(File file) throws InterruptedException {
+        Track track;
+        reads.acquire();
+        try {
+            track = new Track(file);
+            try {
+                track.checksum = checksum(file);
+            } catch(IOException e) {
+                LOGGER.error("Could not compute checksum of {}", file.getName(), e);
+            }
+        } finally {
+            reads.release();
+        }
+        filesDone.incrementAndGet();
+        bytesDone.addAndGet(file.length());
+        if(listener != null) {
+            listener.onProgress(getProgress());
+        }
+        return track;
+    }
+
+    /**
+     * CRC32 of the whole file, read through a memory mapping so it never gets copied
+     */
+    public static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for(long position = 0; position < size; position += CHECKSUM_CHUNK_SIZE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHECKSUM_CHUNK_SIZE, size - position)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    public interface ProgressListener {
+        /**
+         * Called from the scanning threads every time a file is done
+         */
+        void onProgress(Progress progress);
+    }
+
+    public record Progress(int filesDone, int filesTotal, long bytesDone, long elapsedNanos) {
+        public double filesPerSecond() {
+            return elapsedNanos == 0 ? 0 : filesDone / (elapsedNanos / 1_000_000_000.0);
+        }
+
+        public double megabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : (bytesDone / 1_048_576.0) / (elapsedNanos / 1_000_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The library's tracks as they were at some point. It never changes once it's made: {@link Library} makes a new one
+ * whenever something changes and swaps it in all at once, so any thread can go through one without locking and
+ * without it changing halfway through.
+ */
+public final class LibrarySnapshot {
+    public static final LibrarySnapshot EMPTY = new LibrarySnapshot(List.of(), List.of());
+
+    /**
+     * Every track in the library, in no particular order
+     */
+    public final List<Track> tracks;
+    /**
+     * The tracks that get through the current session's filters, sorted the way the session is sorted
+     */
+    public final List<Track> filteredTracks;
+    // only built if something looks a track up, most snapshots get replaced before that
+    private volatile Map<String, Track> tracksByName = null;
+    private volatile Map<Track, Integer> filteredIndexes = null;
+
+    public LibrarySnapshot(List<Track> tracks, List<Track> filteredTracks) {
+        this.tracks = List.copyOf(tracks);
+        this.filteredTracks = List.copyOf(filteredTracks);
+    }
+
+    /**
+     * @return the track with this file name, or null if there's none
+     */
+    public Track getTrack(String fileName) {
+        Map<String, Track> byName = tracksByName;
+        if(byName == null) {
+            byName = new HashMap<>();
+            for(Track track : tracks) {
+                byName.put(track.getFile().getName(), track);
+            }
+            tracksByName = byName;
+        }
+        return byName.get(fileName);
+    }
+
+    /**
+     * @return where the track is in {@link #filteredTracks}, or -1 if it isn't there
+     */
+    public int filteredIndexOf(Track track) {
+        Map<Track, Integer> indexes = filteredIndexes;
+        if(indexes == null) {
+            indexes = new HashMap<>();
+            for(int i = 0; i < filteredTracks.size(); i++) {
+                indexes.put(filteredTracks.get(i), i);
+            }
+            filteredIndexes = indexes;
+        }
+        return indexes.getOrDefault(track, -1);
+    }
+}
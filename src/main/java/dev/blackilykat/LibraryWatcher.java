@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static dev.blackilykat.Main.LOGGER;
+
+/**
+ * Keeps the library up to date with whatever happens to the files in {@link Storage#LIBRARY}, one file at a time,
+ * so tracks showing up or going away don't need a full rescan.
+ */
+public class LibraryWatcher extends Thread {
+    /**
+     * How long a file has to go without events before it gets updated. Copying a file in fires a bunch of modify
+     * events and there's no point reading it before it's done.
+     */
+    public static final long QUIET_MS = 500;
+
+    /**
+     * File name to when the latest event for it happened
+     */
+    private final Map<String, Long> pending = new HashMap<>();
+
+    public LibraryWatcher() {
+        super("Library watcher thread");
+        setDaemon(true);
+    }
+
+    @SuppressWarnings("InfiniteLoopStatement")
+    @Override
+    public void run() {
+        LOGGER.info("Starting library watcher thread");
+        try(WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            Storage.LIBRARY.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+            while(true) {
+                WatchKey key = pending.isEmpty() ? watchService.take() : watchService.poll(QUIET_MS, TimeUnit.MILLISECONDS);
+                if(key != null) {
+                    handleEvents(key);
+                }
+                updateQuietFiles();
+            }
+        } catch(InterruptedException e) {
+            LOGGER.warn("Library watcher thread interrupted");
+        } catch(IOException e) {
+            LOGGER.error("Could not watch library, changes made outside the app won't show up until restarting", e);
+        } catch(Exception e) {
+            LOGGER.error("Unknown exception", e);
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // lost track of what changed
+                LOGGER.warn("Missed some library changes, reloading everything");
+                pending.clear();
+                Library.INSTANCE.reloadAll(null);
+                continue;
+            }
+            pending.put(((Path) event.context()).toString(), System.currentTimeMillis());
+        }
+        key.reset();
+    }
+
+    private void updateQuietFiles() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> iterator = pending.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if(now - entry.getValue() < QUIET_MS) continue;
+            // the app is writing it and will update it once it's done. it stays pending in case writing it fails
+            if(Library.INSTANCE.isBeingWritten(entry.getKey())) continue;
+
+            iterator.remove();
+            Library.INSTANCE.updateTrack(new File(Storage.LIBRARY, entry.getKey()));
+        }
+    }
+}
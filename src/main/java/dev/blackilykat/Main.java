@@ -22,6 +22,7 @@ import dev.blackilykat.menubar.connection.DisconnectFromServerMenuItem;
 import dev.blackilykat.menubar.connection.SetServerIpMenuItem;
 import dev.blackilykat.menubar.debug.EnterLogMenuItem;
 import dev.blackilykat.menubar.playback.ChangeSessionMenu;
+import dev.blackilykat.menubar.playback.NativeOutputMenuItem;
 import dev.blackilykat.messages.KeepAliveMessage;
 import dev.blackilykat.widgets.filters.LibraryFiltersWidget;
 import dev.blackilykat.widgets.playbar.PlayBarWidget;
@@ -125,6 +126,7 @@ public class Main {
 
             JMenu playbackMenu = new JMenu("Playback");
             playbackMenu.add(new ChangeSessionMenu(Audio.INSTANCE));
+            playbackMenu.add(new NativeOutputMenuItem());
             menuBar.add(playbackMenu);
 
             JMenu debugMenu = new JMenu("Debug");
@@ -146,6 +148,7 @@ public class Main {
         }, KeepAliveMessage.KEEPALIVE_MS, KeepAliveMessage.KEEPALIVE_MS);
 
         new LibraryActionSenderThread().start();
+        new LibraryWatcher().start();
 
         try {
             ServerConnection.INSTANCE = new ServerConnection(Storage.getServerIp(), Storage.getServerMainPort(), Storage.getServerFilePort());
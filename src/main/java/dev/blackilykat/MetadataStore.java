@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat;
+
+import dev.blackilykat.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The metadata of every track in the library, stored by column. Each track gets a small id ({@link Track#id}), each
+ * key (case insensitive, like everywhere else) and each distinct value get an id too, and every key has an array
+ * going from track id to value id. Looking up a track's artist is then two array reads instead of going through its
+ * whole metadata list comparing strings.
+ * <p>
+ * Every key also has an inverted index going from value id to a bitmap of the tracks that have it, which is what
+ * filters are evaluated with.
+ * <p>
+ * Adding a track also makes its {@link Track#metadata} point to the shared key and value strings, so a thousand
+ * tracks from the same album don't each have their own copy of its name.
+ */
+public class MetadataStore {
+    /**
+     * Returned when a key, value or track is not in the store
+     */
+    public static final int NONE = -1;
+    private static final int[] NO_VALUES = new int[0];
+
+    private final Map<String, Integer> keyIds = new HashMap<>();
+    /**
+     * Key names by id, with the capitalization of whichever track had them first
+     */
+    private final List<String> keys = new ArrayList<>();
+    /**
+     * Every capitalization of every key, so tracks can share them too
+     */
+    private final Map<String, String> keySpellings = new HashMap<>();
+    private final Map<String, Integer> valueIds = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+    /**
+     * For each key id, the id of each track's first value for it + 1, or 0 if it doesn't have one
+     */
+    private final List<int[]> columns = new ArrayList<>();
+    /**
+     * Values after the first for tracks that have a key more than once (like several artists), by key id << 32 |
+     * track id
+     */
+    private final Map<Long, int[]> extraValues = new HashMap<>();
+    /**
+     * For each key id, the ids of the tracks that have something in {@link #extraValues} for it
+     */
+    private final List<BitSet> tracksWithExtraValues = new ArrayList<>();
+    /**
+     * Inverted index: for each key id, value id to the ids of the tracks that have that value
+     */
+    private final List<Map<Integer, BitSet>> postings = new ArrayList<>();
+    /**
+     * For each key id, the ids of the tracks that have it at all
+     */
+    private final List<BitSet> tracksWithKey = new ArrayList<>();
+    private final BitSet allTracks = new BitSet();
+    private final List<Track> tracks = new ArrayList<>();
+    /**
+     * Ids of removed tracks, handed out again before making new ones so the columns don't keep growing
+     */
+    private final BitSet freeIds = new BitSet();
+
+    /**
+     * Gives the track an id and stores its metadata.
+     */
+    public synchronized void add(Track track) {
+        int id = freeIds.nextSetBit(0);
+        if(id == -1) {
+            id = tracks.size();
+            tracks.add(track);
+        } else {
+            freeIds.clear(id);
+            tracks.set(id, track);
+        }
+        track.id = id;
+        allTracks.set(id);
+
+        for(Pair<String, String> pair : track.metadata) {
+            int keyId = internKey(pair.key);
+            int valueId = internValue(pair.value);
+            pair.key = keySpellings.computeIfAbsent(pair.key, k -> k);
+            pair.value = values.get(valueId);
+
+            int[] column = column(keyId);
+            if(column[id] == 0) {
+                column[id] = valueId + 1;
+            } else {
+                long extraKey = extraKey(keyId, id);
+                int[] extra = extraValues.getOrDefault(extraKey, NO_VALUES);
+                extra = Arrays.copyOf(extra, extra.length + 1);
+                extra[extra.length - 1] = valueId;
+                extraValues.put(extraKey, extra);
+                tracksWithExtraValues.get(keyId).set(id);
+            }
+            postings.get(keyId).computeIfAbsent(valueId, v -> new BitSet()).set(id);
+            tracksWithKey.get(keyId).set(id);
+        }
+    }
+
+    /**
+     * Forgets about the track's metadata. Its id may be given to another track afterwards.
+     */
+    public synchronized void remove(Track track) {
+        int id = track.id;
+        if(id < 0 || id >= tracks.size() || tracks.get(id) != track) return;
+
+        for(int keyId = 0; keyId < columns.size(); keyId++) {
+            if(!tracksWithKey.get(keyId).get(id)) continue;
+
+            for(int valueId : getValueIds(id, keyId)) {
+                BitSet valueTracks = postings.get(keyId).get(valueId);
+                // a track can have the same value twice
+                if(valueTracks == null) continue;
+                valueTracks.clear(id);
+                if(valueTracks.isEmpty()) postings.get(keyId).remove(valueId);
+            }
+            tracksWithKey.get(keyId).clear(id);
+            columns.get(keyId)[id] = 0;
+            extraValues.remove(extraKey(keyId, id));
+            tracksWithExtraValues.get(keyId).clear(id);
+        }
+        tracks.set(id, null);
+        allTracks.clear(id);
+        freeIds.set(id);
+        track.id = NONE;
+    }
+
+    /**
+     * @return the id of the key, ignoring case, or {@link #NONE} if no track has it
+     */
+    public synchronized int keyId(String key) {
+        return keyIds.getOrDefault(key.toLowerCase(Locale.ROOT), NONE);
+    }
+
+    /**
+     * @return the id of the value, or {@link #NONE} if no track has it
+     */
+    public synchronized int valueId(String value) {
+        return valueIds.getOrDefault(value, NONE);
+    }
+
+    public synchronized String value(int valueId) {
+        return values.get(valueId);
+    }
+
+    /**
+     * @return the track with this id, or null if there's none
+     */
+    public synchronized Track getTrack(int trackId) {
+        if(trackId < 0 || trackId >= tracks.size()) return null;
+        return tracks.get(trackId);
+    }
+
+    /**
+     * @return one past the highest track id that's currently handed out
+     */
+    public synchronized int trackIdLimit() {
+        return tracks.size();
+    }
+
+    /**
+     * @return the track's first value for the key, or null if it doesn't have one
+     */
+    public synchronized String get(int trackId, int keyId) {
+        int valueId = getValueId(trackId, keyId);
+        return valueId == NONE ? null : values.get(valueId);
+    }
+
+    /**
+     * @return the id of the track's first value for the key, or {@link #NONE} if it doesn't have one
+     */
+    public synchronized int getValueId(int trackId, int keyId) {
+        if(keyId < 0 || keyId >= columns.size() || trackId < 0) return NONE;
+        int[] column = columns.get(keyId);
+        if(trackId >= column.length) return NONE;
+        return column[trackId] - 1;
+    }
+
+    /**
+     * @return the ids of all the track's values for the key, in the order they are in the file
+     */
+    public synchronized int[] getValueIds(int trackId, int keyId) {
+        int first = getValueId(trackId, keyId);
+        if(first == NONE) return NO_VALUES;
+        int[] extra = extraValues.get(extraKey(keyId, trackId));
+        if(extra == null) return new int[]{first};
+
+        int[] all = new int[extra.length + 1];
+        all[0] = first;
+        System.arraycopy(extra, 0, all, 1, extra.length);
+        return all;
+    }
+
+    /**
+     * @return all the track's values for the key, in the order they are in the file
+     */
+    public synchronized String[] getAll(int trackId, int keyId) {
+        int[] ids = getValueIds(trackId, keyId);
+        String[] result = new String[ids.length];
+        for(int i = 0; i < ids.length; i++) {
+            result[i] = values.get(ids[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #getAll(int, int)}, but also works for tracks that aren't in the store by going through their
+     * metadata.
+     */
+    public String[] getAll(Track track, String key) {
+        synchronized(this) {
+            if(track.id != NONE && getTrack(track.id) == track) {
+                return getAll(track.id, keyId(key));
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for(Pair<String, String> pair : track.metadata) {
+            if(pair.key.equalsIgnoreCase(key)) {
+                result.add(pair.value);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * @return the ids of every value at least one track has for the key
+     */
+    public synchronized BitSet distinctValueIds(int keyId) {
+        BitSet result = new BitSet();
+        if(keyId < 0 || keyId >= postings.size()) return result;
+        for(int valueId : postings.get(keyId).keySet()) {
+            result.set(valueId);
+        }
+        return result;
+    }
+
+    /**
+     * Counts how many of the given tracks have each value for the key, in a single pass over them. A track that has
+     * the same value more than once only counts once.
+     *
+     * @return value id to number of tracks, with the ones that don't have the key at all under {@link #NONE}
+     */
+    public synchronized Map<Integer, Integer> countValues(int keyId, BitSet among) {
+        Map<Integer, Integer> result = new HashMap<>();
+        if(keyId < 0 || keyId >= columns.size()) {
+            if(!among.isEmpty()) {
+                result.put(NONE, among.cardinality());
+            }
+            return result;
+        }
+
+        // boxing a new Integer for every track adds up, so count in arrays and only box once per value
+        Map<Integer, int[]> counts = new HashMap<>();
+        int[] column = columns.get(keyId);
+        BitSet withExtraValues = tracksWithExtraValues.get(keyId);
+        int unknown = 0;
+        for(int id = among.nextSetBit(0); id >= 0; id = among.nextSetBit(id + 1)) {
+            int valueId = id < column.length ? column[id] - 1 : NONE;
+            if(valueId == NONE) {
+                unknown++;
+                continue;
+            }
+            counts.computeIfAbsent(valueId, v -> new int[1])[0]++;
+
+            if(!withExtraValues.get(id)) continue;
+            int[] extra = extraValues.get(extraKey(keyId, id));
+            for(int i = 0; i < extra.length; i++) {
+                if(extra[i] == valueId || indexOf(extra, extra[i]) < i) continue;
+                counts.computeIfAbsent(extra[i], v -> new int[1])[0]++;
+            }
+        }
+
+        for(Map.Entry<Integer, int[]> entry : counts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[0]);
+        }
+        if(unknown > 0) {
+            result.put(NONE, unknown);
+        }
+        return result;
+    }
+
+    /**
+     * @return the ids of every track in the store. Changing it doesn't affect the store
+     */
+    public synchronized BitSet allTracks() {
+        return (BitSet) allTracks.clone();
+    }
+
+    /**
+     * @return the ids of the tracks that have this value for the key. Changing it doesn't affect the store
+     */
+    public synchronized BitSet tracksWith(int keyId, int valueId) {
+        if(keyId < 0 || keyId >= postings.size()) return new BitSet();
+        BitSet valueTracks = postings.get(keyId).get(valueId);
+        return valueTracks == null ? new BitSet() : (BitSet) valueTracks.clone();
+    }
+
+    /**
+     * Same as checking if {@link #tracksWith} intersects the given tracks, without copying anything
+     */
+    public synchronized boolean anyTrackWith(int keyId, int valueId, BitSet among) {
+        if(keyId < 0 || keyId >= postings.size()) return false;
+        BitSet valueTracks = postings.get(keyId).get(valueId);
+        return valueTracks != null && valueTracks.intersects(among);
+    }
+
+    /**
+     * @return the ids of the tracks that have any value for the key. Changing it doesn't affect the store
+     */
+    public synchronized BitSet tracksWithKey(int keyId) {
+        if(keyId < 0 || keyId >= tracksWithKey.size()) return new BitSet();
+        return (BitSet) tracksWithKey.get(keyId).clone();
+    }
+
+    /**
+     * @return the ids of the tracks that don't have the key at all. Changing it doesn't affect the store
+     */
+    public synchronized BitSet tracksWithoutKey(int keyId) {
+        BitSet result = (BitSet) allTracks.clone();
+        if(keyId >= 0 && keyId < tracksWithKey.size()) {
+            result.andNot(tracksWithKey.get(keyId));
+        }
+        return result;
+    }
+
+    private int internKey(String key) {
+        String lowercase = key.toLowerCase(Locale.ROOT);
+        Integer id = keyIds.get(lowercase);
+        if(id != null) return id;
+
+        id = keys.size();
+        keys.add(key);
+        keyIds.put(lowercase, id);
+        columns.add(new int[Math.max(16, tracks.size())]);
+        postings.add(new HashMap<>());
+        tracksWithKey.add(new BitSet());
+        tracksWithExtraValues.add(new BitSet());
+        return id;
+    }
+
+    private int internValue(String value) {
+        Integer id = valueIds.get(value);
+        if(id != null) return id;
+
+        id = values.size();
+        values.add(value);
+        valueIds.put(value, id);
+        return id;
+    }
+
+    /**
+     * @return the column of the key, grown if needed to fit every track id
+     */
+    private int[] column(int keyId) {
+        int[] column = columns.get(keyId);
+        if(column.length < tracks.size()) {
+            column = Arrays.copyOf(column, Math.max(tracks.size(), column.length * 2));
+            columns.set(keyId, column);
+        }
+        return column;
+    }
+
+    private static int indexOf(int[] array, int value) {
+        for(int i = 0; i < array.length; i++) {
+            if(array[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static long extraKey(int keyId, int trackId) {
+        return ((long) keyId << 32) | trackId;
+    }
+}
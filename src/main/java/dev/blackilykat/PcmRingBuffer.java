@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Fixed size window over the pcm data of a track. The decoder writes into it sequentially and gets blocked once it's
+ * far enough ahead of the playhead, so memory usage doesn't depend on how long the track is.
+ * <p>
+ * Every position is an absolute byte offset in the track's pcm data as stored in this buffer, which is in
+ * {@link #format}. Use {@link Audio#toBufferPosition} to get there from a {@link PlaybackSession} position.
+ * Half of the buffer is kept as history behind the playhead so short jumps backwards don't need to decode again.
+ */
+public class PcmRingBuffer {
+    private final byte[] data;
+    /**
+     * Format of the data in this buffer, which is also the format the audio line needs to be in to play it.
+     */
+    public final AudioFormat format;
+    /**
+     * Expected length of the whole track's pcm data in bytes. Replaced with the actual length once the decoder reaches
+     * the end of the file.
+     */
+    public volatile long length = 0;
+    /**
+     * Position of the oldest byte still in the buffer
+     */
+    private long start = 0;
+    /**
+     * Position right after the latest byte written
+     */
+    private long end = 0;
+    private long readPosition = 0;
+    private boolean finished = false;
+    /**
+     * Position the decoder should restart from, or -1 if it can keep going. Despite the name it can also be ahead of
+     * where the decoder is, when the playhead jumps too far forward.
+     */
+    private long rewindTarget = -1;
+
+    /**
+     * @param seconds how much audio it should be able to hold
+     */
+    public PcmRingBuffer(AudioFormat format, int seconds) {
+        this.format = format;
+        int frameSize = format.getFrameSize();
+        int capacity = (int) (format.getFrameRate() * frameSize * seconds);
+        // keep whole frames so a frame never gets split around the wrapping point
+        this.data = new byte[capacity - (capacity % frameSize)];
+    }
+
+    /**
+     * Appends decoded data. Blocks while the decoder is too far ahead of the playhead, and gives up on whatever is
+     * left as soon as a rewind gets requested.
+     */
+    public synchronized void write(byte[] src, int offset, int len) throws InterruptedException {
+        long maxAhead = data.length / 2;
+        while(len > 0) {
+            while(rewindTarget == -1 && end - readPosition >= maxAhead) {
+                wait();
+            }
+            if(rewindTarget != -1) return;
+
+            int index = (int) (end % data.length);
+            int chunk = (int) Math.min(len, Math.min(maxAhead - Math.max(0, end - readPosition), data.length - index));
+            System.arraycopy(src, offset, data, index, chunk);
+            offset += chunk;
+            len -= chunk;
+            end += chunk;
+            start = Math.max(start, end - data.length);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Copies up to len bytes starting from the given position, and marks that position as the current playhead.
+     *
+     * @return how many bytes were copied, 0 if the decoder didn't get there yet, or -1 if that part of the track isn't
+     * in the buffer anymore or is too far ahead to just wait for it. In the last case a rewind is requested and the
+     * data will be available later.
+     */
+    public synchronized int read(long position, byte[] dst, int offset, int len) {
+        readPosition = position;
+        notifyAll();
+        if(position < start || (!finished && position - end > data.length / 2)) {
+            rewindTarget = position;
+            return -1;
+        }
+        if(position >= end) return 0;
+
+        int toRead = (int) Math.min(len, end - position);
+        int index = (int) (position % data.length);
+        int firstChunk = Math.min(toRead, data.length - index);
+        System.arraycopy(data, index, dst, offset, firstChunk);
+        if(firstChunk < toRead) {
+            System.arraycopy(data, 0, dst, offset + firstChunk, toRead - firstChunk);
+        }
+        return toRead;
+    }
+
+    /**
+     * Waits a bit for the data at the given position to be decoded. Doesn't guarantee it is available once it returns.
+     */
+    public synchronized void awaitData(long position) throws InterruptedException {
+        if(position < start || position >= end) {
+            wait(100);
+        }
+    }
+
+    /**
+     * @return the position the decoder should restart from, or -1 if it can keep going
+     */
+    public synchronized long getRewindTarget() {
+        return rewindTarget;
+    }
+
+    /**
+     * Blocks until a rewind gets requested.
+     *
+     * @return the position the decoder should restart from
+     */
+    public synchronized long awaitRewind() throws InterruptedException {
+        while(rewindTarget == -1) {
+            wait();
+        }
+        return rewindTarget;
+    }
+
+    /**
+     * Empties the buffer so that the next write starts at the given position.
+     */
+    public synchronized void reset(long position) {
+        start = position;
+        end = position;
+        finished = false;
+        rewindTarget = -1;
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of the track, fixing {@link #length} to how much data there actually was.
+     */
+    public synchronized void finish() {
+        finished = true;
+        length = end;
+        notifyAll();
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return position right after the latest byte written
+     */
+    public synchronized long getEnd() {
+        return end;
+    }
+}
@@ -205,7 +205,7 @@ public class PlaybackSession {
     }
 
     public Track nextTrack() {
-        if(audio.library.filteredTracks.isEmpty()) return null;
+        if(audio.library.getSnapshot().filteredTracks.isEmpty()) return null;
         if(currentTrack != null) {
             previousTracks.push(currentTrack);
         }
@@ -299,22 +299,24 @@ public class PlaybackSession {
     }
 
     private Track pickNext() {
-        if(audio.library.filteredTracks.isEmpty()) return null;
+        // one snapshot for the whole thing so it can't change between checking and picking
+        LibrarySnapshot library = audio.library.getSnapshot();
+        if(library.filteredTracks.isEmpty()) return null;
         if(currentTrack == null) {
             if(shuffle == ShuffleOption.ON) {
-                return audio.library.filteredTracks.get(random.nextInt(audio.library.filteredTracks.size()));
+                return library.filteredTracks.get(random.nextInt(library.filteredTracks.size()));
             } else {
-                return audio.library.filteredTracks.getFirst();
+                return library.filteredTracks.getFirst();
             }
         } else {
             if(repeat == RepeatOption.TRACK) {
                 return currentTrack;
             } else if(shuffle == ShuffleOption.ON) {
-                return audio.library.filteredTracks.get(random.nextInt(audio.library.filteredTracks.size()));
-            } else if(audio.library.filteredTracks.getLast() != currentTrack) {
-                return audio.library.filteredTracks.get(audio.library.filteredTracks.indexOf(currentTrack) + 1);
-            } else if(audio.library.filteredTracks.getLast() == currentTrack && repeat == RepeatOption.ALL) {
-                return audio.library.filteredTracks.getFirst();
+                return library.filteredTracks.get(random.nextInt(library.filteredTracks.size()));
+            } else if(library.filteredTracks.getLast() != currentTrack) {
+                return library.filteredTracks.get(library.filteredIndexOf(currentTrack) + 1);
+            } else if(library.filteredTracks.getLast() == currentTrack && repeat == RepeatOption.ALL) {
+                return library.filteredTracks.getFirst();
             }
         }
         return null;
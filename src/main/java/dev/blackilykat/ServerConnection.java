@@ -63,6 +63,8 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import static dev.blackilykat.Main.LOGGER;
 
@@ -235,6 +237,8 @@ public class ServerConnection {
         try {
             LOGGER.info("Attempting to download track {}...", name);
             File destination = new File(Storage.LIBRARY, name);
+            // the watcher would read it halfway through if the connection stalls
+            Library.INSTANCE.startWriting(name);
 
             // HttpsURLConnection hangs with insecure HTTP servers
             if(supportsInsecureHTTP(ip, filePort)) {
@@ -249,17 +253,24 @@ public class ServerConnection {
             connection.setRequestMethod("GET");
             connection.setDoInput(true);
             connection.setRequestProperty("Authorization", Storage.getToken());
-            InputStream connectionInputStream = connection.getInputStream();
-            Files.copy(connectionInputStream, destination.toPath());
+            // checksum it on the way in so the library doesn't need to read it all over again
+            long checksum;
+            try(CheckedInputStream connectionInputStream = new CheckedInputStream(connection.getInputStream(), new CRC32())) {
+                Files.copy(connectionInputStream, destination.toPath());
+                checksum = connectionInputStream.getChecksum().getValue();
+            }
             if(connection.getResponseCode() == 200) {
                 LOGGER.info("Successfully downloaded track {}", name);
             } else {
                 LOGGER.error("Unexpected response code {}!", connection.getResponseCode());
             }
+            Library.INSTANCE.updateTrack(destination, checksum);
         } catch(URISyntaxException e) {
             throw new RuntimeException(e);
+        } finally {
+            // already done by updateTrack unless it failed
+            Library.INSTANCE.stopWriting(name);
         }
-        Library.INSTANCE.reloadAll(null);
     }
 
     /**
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat;
+
+import dev.blackilykat.widgets.tracklist.IntegerTrackDataEntry;
+import dev.blackilykat.widgets.tracklist.Order;
+import dev.blackilykat.widgets.tracklist.StringTrackDataEntry;
+import dev.blackilykat.widgets.tracklist.TimeTrackDataEntry;
+import dev.blackilykat.widgets.tracklist.TrackDataHeader;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sort keys for every track in a {@link MetadataStore}, by {@link TrackDataHeader}, so sorting the song list doesn't
+ * need the tracks' panels or any string lookups while comparing. A header's keys get worked out the first time
+ * something gets sorted by it, and after that they're kept up to date one track at a time.
+ * <p>
+ * Keys are ordered the same way the header's {@link dev.blackilykat.widgets.tracklist.TrackDataEntry} orders them.
+ */
+public class SortIndex {
+    private final MetadataStore metadata;
+    private final Map<TrackDataHeader, Column> columns = new HashMap<>();
+
+    public SortIndex(MetadataStore metadata) {
+        this.metadata = metadata;
+    }
+
+    /**
+     * Works out the keys of a track that was just added to the store.
+     */
+    public synchronized void add(Track track) {
+        for(Column column : columns.values()) {
+            column.update(track);
+        }
+    }
+
+    /**
+     * Forgets the keys of a track that's about to be removed from the store.
+     */
+    public synchronized void remove(Track track) {
+        for(Column column : columns.values()) {
+            column.clear(track.id);
+        }
+    }
+
+    /**
+     * Sorts the tracks by the first header, then by the next one where they're equal and so on, and by file name once
+     * the headers run out. Since no two tracks are ever equal, sorting in the opposite order is the same as reversing
+     * the result.
+     */
+    public synchronized void sort(List<Track> tracks, List<TrackDataHeader> headers, Order order) {
+        tracks.sort(comparator(headers, order));
+    }
+
+    /**
+     * @param tracks tracks already sorted by {@link #sort} with the same headers and order
+     * @return where the track should go in tracks to keep them sorted
+     */
+    public synchronized int insertionIndex(List<Track> tracks, Track track, List<TrackDataHeader> headers, Order order) {
+        Comparator<Track> comparator = comparator(headers, order);
+        int low = 0;
+        int high = tracks.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(comparator.compare(tracks.get(middle), track) > 0) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private Comparator<Track> comparator(List<TrackDataHeader> headers, Order order) {
+        // headers that got removed don't need their keys anymore
+        columns.keySet().retainAll(headers);
+
+        Column[] sortColumns = new Column[headers.size()];
+        for(int i = 0; i < sortColumns.length; i++) {
+            sortColumns[i] = getColumn(headers.get(i));
+        }
+        Comparator<Track> comparator = (a, b) -> {
+            for(Column column : sortColumns) {
+                int result = column.compare(a.id, b.id);
+                if(result != 0) return result;
+            }
+            return a.getFile().getName().compareTo(b.getFile().getName());
+        };
+        // descending is the entries' natural order, that's how the song list has always done it
+        return order == Order.DESCENDING ? comparator : comparator.reversed();
+    }
+
+    /**
+     * @return the keys for the header, worked out from scratch if there weren't any or the header changed since
+     */
+    private Column getColumn(TrackDataHeader header) {
+        Column column = columns.get(header);
+        if(column != null && column.metadataKey.equals(header.metadataKey) && column.type == header.clazz) {
+            return column;
+        }
+
+        column = new Column(header.metadataKey, header.clazz);
+        for(int id = 0; id < metadata.trackIdLimit(); id++) {
+            Track track = metadata.getTrack(id);
+            if(track != null) {
+                column.update(track);
+            }
+        }
+        columns.put(header, column);
+        return column;
+    }
+
+    /**
+     * The keys of a single header by track id: numbers for the headers that show numbers, strings otherwise
+     */
+    private class Column {
+        final String metadataKey;
+        final Class<?> type;
+        final boolean numeric;
+        long[] numbers = new long[0];
+        String[] strings = new String[0];
+        /**
+         * Ids of the tracks that have a key at all
+         */
+        final BitSet present = new BitSet();
+
+        Column(String metadataKey, Class<?> type) {
+            this.metadataKey = metadataKey;
+            this.type = type;
+            this.numeric = type == IntegerTrackDataEntry.class || type == TimeTrackDataEntry.class;
+        }
+
+        void update(Track track) {
+            int id = track.id;
+            clear(id);
+            if(numeric && numbers.length <= id) {
+                numbers = Arrays.copyOf(numbers, Math.max(id + 1, numbers.length * 2));
+            } else if(!numeric && strings.length <= id) {
+                strings = Arrays.copyOf(strings, Math.max(id + 1, strings.length * 2));
+            }
+
+            if(type == TimeTrackDataEntry.class) {
+                if(metadataKey.equals("duration")) {
+                    numbers[id] = track.durationSeconds;
+                    present.set(id);
+                }
+            } else if(type == IntegerTrackDataEntry.class) {
+                String value = metadata.get(id, metadata.keyId(metadataKey));
+                if(value == null) return;
+                try {
+                    numbers[id] = Long.parseLong(value);
+                    present.set(id);
+                } catch(NumberFormatException ignored) {}
+            } else if(type == StringTrackDataEntry.class) {
+                String[] values = metadata.getAll(id, metadata.keyId(metadataKey));
+                if(values.length == 0) return;
+                strings[id] = values.length == 1 ? values[0] : String.join(", ", values);
+                present.set(id);
+            }
+        }
+
+        void clear(int id) {
+            present.clear(id);
+            if(id < strings.length) {
+                strings[id] = null;
+            }
+        }
+
+        int compare(int a, int b) {
+            boolean hasA = present.get(a);
+            boolean hasB = present.get(b);
+            if(!hasA || !hasB) {
+                if(hasA == hasB) return 0;
+                // missing strings go first and missing numbers go last, same as their entries
+                int result = hasA ? 1 : -1;
+                return numeric ? -result : result;
+            }
+            return numeric ? Long.compare(numbers[a], numbers[b]) : strings[a].compareTo(strings[b]);
+        }
+    }
+}
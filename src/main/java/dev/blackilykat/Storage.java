@@ -17,21 +17,26 @@
 
 package dev.blackilykat;
 
+import dev.blackilykat.parsers.FrameIndex;
 import dev.blackilykat.widgets.filters.LibraryFilter;
 import dev.blackilykat.widgets.filters.LibraryFilterOption;
 import dev.blackilykat.widgets.tracklist.TrackDataHeader;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 
 import java.io.File;
 import java.io.Serializable;
 import java.security.Key;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 
+import static dev.blackilykat.Main.LOGGER;
+
 @SuppressWarnings("unchecked")
 public class Storage {
     public static final File LIBRARY = new File("library/");
@@ -39,13 +44,26 @@ public class Storage {
     public static MVStore mvStore;
     public static Map<String, Object> general;
     public static Map<String, Track> trackCache;
+    /**
+     * Frame indexes of tracks, by checksum so they survive renames and get dropped (well, ignored) if the file changes
+     */
+    public static Map<Long, FrameIndex> frameIndexes;
+    /**
+     * Checksums of tracks that matched the server's copy at some point. Presence in the map is what matters
+     */
+    public static Map<Long, Boolean> verifiedChecksums;
     private static Queue<LibraryAction> pendingLibraryActions = null;
     private static final Object actionLock = new Object();
 
     public static void init() {
         mvStore = MVStore.open("db");
         general = mvStore.openMap("general");
-        trackCache = mvStore.openMap("trackCache");
+        trackCache = mvStore.openMap("tracks", new MVMap.Builder<String, Track>().valueType(TrackDataType.INSTANCE));
+        if(mvStore.hasMap("trackCache")) {
+            migrateTrackCache();
+        }
+        frameIndexes = mvStore.openMap("frameIndexes");
+        verifiedChecksums = mvStore.openMap("verifiedChecksums");
         pendingLibraryActions = (Queue<LibraryAction>) general.getOrDefault("pendingLibraryActions", new LinkedList<>());
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             Map<String, Map<String, LibraryFilterOption.State>> filters = new HashMap<>();
@@ -80,6 +98,21 @@ public class Storage {
         TrackDataHeader.latestId = Storage.getLatestHeaderId();
     }
 
+    /**
+     * Moves tracks from the old java serialized cache over to the current one. If they can't be read they just get
+     * scanned again.
+     */
+    private static void migrateTrackCache() {
+        try {
+            Map<String, Track> oldCache = mvStore.openMap("trackCache");
+            LOGGER.info("Migrating {} cached tracks", oldCache.size());
+            trackCache.putAll(oldCache);
+        } catch(Exception e) {
+            LOGGER.warn("Could not migrate track cache, tracks will be scanned again", e);
+        }
+        mvStore.removeMap("trackCache");
+    }
+
     public static int getCurrentActionID() {
         return (Integer) general.getOrDefault("currentActionID", -1);
     }
@@ -161,6 +194,29 @@ public class Storage {
         general.put("serverFilePort", port);
     }
 
+    /**
+     * Whether tracks should be played in their own sample rate and bit depth instead of being converted
+     */
+    public static boolean getNativeOutput() {
+        return (Boolean) general.getOrDefault("nativeOutput", false);
+    }
+
+    public static void setNativeOutput(boolean nativeOutput) {
+        general.put("nativeOutput", nativeOutput);
+    }
+
+    /**
+     * Whether a track with this checksum is known to be intact, because the server had the exact same file
+     */
+    public static boolean isChecksumVerified(long checksum) {
+        return checksum != -1 && verifiedChecksums.containsKey(checksum);
+    }
+
+    public static void setChecksumVerified(long checksum) {
+        if(checksum == -1) return;
+        verifiedChecksums.put(checksum, true);
+    }
+
     /**
      * Adds an action to the queue.
      */
@@ -171,6 +227,16 @@ public class Storage {
         }
     }
 
+    /**
+     * Adds a bunch of actions to the queue at once.
+     */
+    public static void pushPendingLibraryActions(Collection<LibraryAction> actions) {
+        pendingLibraryActions.addAll(actions);
+        synchronized(actionLock) {
+            actionLock.notify();
+        }
+    }
+
     /**
      * Pops a pending action form the queue. Meant to be called after {@link #blockingPeekPendingLibraryAction()}, so this does
      * not block.
@@ -20,13 +20,13 @@ package dev.blackilykat;
 import dev.blackilykat.util.Pair;
 import dev.blackilykat.widgets.tracklist.TrackPanel;
 import org.kc7bfi.jflac.FLACDecoder;
+import org.kc7bfi.jflac.io.MappedFileInputStream;
 import org.kc7bfi.jflac.metadata.Metadata;
 import org.kc7bfi.jflac.metadata.StreamInfo;
 import org.kc7bfi.jflac.metadata.VorbisComment;
 import org.kc7bfi.jflac.metadata.VorbisString;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -35,23 +35,29 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 public class Track implements Serializable {
+    // what it was computed to be before it got pinned, so caches from back then can still be migrated
+    private static final long serialVersionUID = 2486210732150659676L;
     public String title;
     private File file;
     public transient TrackPanel panel = null;
     public List<Pair<String, String>> metadata = new ArrayList<>();
+    /**
+     * Id of this track in {@link Library#metadata}, or {@link MetadataStore#NONE} if it isn't in the library
+     */
+    public transient int id = MetadataStore.NONE;
     /**
      * CRC32 checksum of the track
      */
     public long checksum = -1;
     /**
-     * The pcm audio data for this track. Should only be anything other than null when it's either being played or
-     * about to.
+     * Buffer the decoder streams this track's pcm audio data into, already in the format it's going to be played in.
+     * Should only be anything other than null when it's either being played or about to.
      */
-    public transient byte[] pcmData = null;
+    public transient PcmRingBuffer pcmBuffer = null;
     /**
-     * How many bytes of {@link #pcmData} are loaded.
+     * How many bytes of pcm data have been decoded so far, counting from the start of the track.
      */
-    public transient int loaded = 0;
+    public transient long loaded = 0;
     public int durationSeconds = 0;
 
     public long lastModified = 0;
@@ -60,9 +66,9 @@ public class Track implements Serializable {
         this.file = path;
         this.lastModified = file.lastModified();
         if(path.getName().endsWith(".flac")) {
-            try {
-                FLACDecoder decoder = new FLACDecoder(new FileInputStream(file));
-                Metadata[] metadataList = decoder.readMetadata();
+            try(MappedFileInputStream inputStream = new MappedFileInputStream(file)) {
+                FLACDecoder decoder = new FLACDecoder(inputStream);
+                Metadata[] metadataList = decoder.scanMetadata();
                 for(Metadata metadataItem : metadataList) {
                     if(metadataItem instanceof StreamInfo streamInfo) {
                         durationSeconds = (int) (streamInfo.getTotalSamples() / streamInfo.getSampleRate());
@@ -99,6 +105,18 @@ public class Track implements Serializable {
         }
     }
 
+    /**
+     * Makes a track out of data that's already known, without reading the file
+     */
+    public Track(File path, String title, List<Pair<String, String>> metadata, long checksum, int durationSeconds, long lastModified) {
+        this.file = path;
+        this.title = title;
+        this.metadata = metadata;
+        this.checksum = checksum;
+        this.durationSeconds = durationSeconds;
+        this.lastModified = lastModified;
+    }
+
     public File getFile() {
         return this.file;
     }
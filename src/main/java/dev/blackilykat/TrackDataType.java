@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat;
+
+import dev.blackilykat.util.Pair;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Stores tracks in {@link Storage#trackCache} as a few varints and strings instead of going through java
+ * serialization, which writes out class descriptors and boxes everything.
+ * <p>
+ * Layout: version, file path, title, lastModified, checksum + 1, duration, metadata count, then every metadata pair
+ * as key then value. Keys that are in {@link #KEYS} are written as their index in it instead of the whole string.
+ * Strings are their length + 1 followed by the characters, with 0 meaning null.
+ */
+public class TrackDataType extends BasicDataType<Track> {
+    public static final TrackDataType INSTANCE = new TrackDataType();
+    /**
+     * Bump when changing the layout, and keep {@link #read} able to read every older one
+     */
+    public static final int VERSION = 1;
+    /**
+     * Metadata keys common enough to be worth not writing out every time. Only ever append to this, the indexes are
+     * what gets stored.
+     */
+    private static final String[] KEYS = {
+            "TITLE", "ARTIST", "ALBUM", "ALBUMARTIST", "TRACKNUMBER", "TRACKTOTAL", "DISCNUMBER", "DISCTOTAL", "DATE",
+            "GENRE", "COMPOSER", "PERFORMER", "COMMENT", "DESCRIPTION", "COPYRIGHT", "LICENSE", "ORGANIZATION",
+            "LOCATION", "CONTACT", "ISRC", "VERSION", "ENCODER", "ENCODED-BY", "LYRICS", "LABEL", "BPM",
+            "REPLAYGAIN_TRACK_GAIN", "REPLAYGAIN_TRACK_PEAK", "REPLAYGAIN_ALBUM_GAIN", "REPLAYGAIN_ALBUM_PEAK",
+            "MUSICBRAINZ_TRACKID", "MUSICBRAINZ_ALBUMID", "MUSICBRAINZ_ARTISTID", "MUSICBRAINZ_ALBUMARTISTID",
+            "MUSICBRAINZ_RELEASEGROUPID", "MUSICBRAINZ_RELEASETRACKID"
+    };
+    private static final String[] LOWERCASE_KEYS = new String[KEYS.length];
+
+    static {
+        for(int i = 0; i < KEYS.length; i++) {
+            LOWERCASE_KEYS[i] = KEYS[i].toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private TrackDataType() {}
+
+    @Override
+    public int getMemory(Track track) {
+        // rough guess, it's only used to decide when to evict pages from the cache
+        int memory = 64 + track.getFile().getPath().length() * 2;
+        if(track.title != null) memory += track.title.length() * 2;
+        for(Pair<String, String> pair : track.metadata) {
+            memory += 48 + (pair.key.length() + pair.value.length()) * 2;
+        }
+        return memory;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Track track) {
+        buff.putVarInt(VERSION);
+        writeString(buff, track.getFile().getPath());
+        writeString(buff, track.title);
+        buff.putVarLong(track.lastModified);
+        // checksums are unsigned 32 bit, so this keeps -1 from taking 10 bytes
+        buff.putVarLong(track.checksum + 1);
+        buff.putVarInt(track.durationSeconds);
+        buff.putVarInt(track.metadata.size());
+        for(Pair<String, String> pair : track.metadata) {
+            writeKey(buff, pair.key);
+            writeString(buff, pair.value);
+        }
+    }
+
+    @Override
+    public Track read(ByteBuffer buff) {
+        int version = DataUtils.readVarInt(buff);
+        if(version != VERSION) {
+            throw new IllegalStateException("Unknown track cache version " + version);
+        }
+        File file = new File(readString(buff));
+        String title = readString(buff);
+        long lastModified = DataUtils.readVarLong(buff);
+        long checksum = DataUtils.readVarLong(buff) - 1;
+        int durationSeconds = DataUtils.readVarInt(buff);
+        int metadataCount = DataUtils.readVarInt(buff);
+        List<Pair<String, String>> metadata = new ArrayList<>(metadataCount);
+        for(int i = 0; i < metadataCount; i++) {
+            String key = readKey(buff);
+            metadata.add(new Pair<>(key, readString(buff)));
+        }
+        return new Track(file, title, metadata, checksum, durationSeconds, lastModified);
+    }
+
+    @Override
+    public Track[] createStorage(int size) {
+        return new Track[size];
+    }
+
+    /**
+     * 0 followed by the string if it's not a known key, otherwise its index + 1 shifted left once, with the lowest bit
+     * set if it was lowercase. Any other capitalization falls back to the string.
+     */
+    private static void writeKey(WriteBuffer buff, String key) {
+        for(int i = 0; i < KEYS.length; i++) {
+            if(!KEYS[i].equalsIgnoreCase(key)) continue;
+
+            if(KEYS[i].equals(key)) {
+                buff.putVarInt((i + 1) << 1);
+                return;
+            }
+            if(LOWERCASE_KEYS[i].equals(key)) {
+                buff.putVarInt(((i + 1) << 1) | 1);
+                return;
+            }
+            break;
+        }
+        buff.putVarInt(0);
+        writeString(buff, key);
+    }
+
+    private static String readKey(ByteBuffer buff) {
+        int code = DataUtils.readVarInt(buff);
+        if(code == 0) return readString(buff);
+        int index = (code >>> 1) - 1;
+        return (code & 1) == 0 ? KEYS[index] : LOWERCASE_KEYS[index];
+    }
+
+    private static void writeString(WriteBuffer buff, String s) {
+        if(s == null) {
+            buff.putVarInt(0);
+            return;
+        }
+        buff.putVarInt(s.length() + 1);
+        buff.putStringData(s, s.length());
+    }
+
+    private static String readString(ByteBuffer buff) {
+        int length = DataUtils.readVarInt(buff);
+        if(length == 0) return null;
+        return DataUtils.readString(buff, length - 1);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat.menubar.playback;
+
+import dev.blackilykat.Audio;
+import dev.blackilykat.Storage;
+
+import javax.swing.JCheckBoxMenuItem;
+
+/**
+ * Toggles playing tracks in their own format instead of converting everything to 44.1kHz 16 bit
+ */
+public class NativeOutputMenuItem extends JCheckBoxMenuItem {
+    public NativeOutputMenuItem() {
+        super("Native output", Storage.getNativeOutput());
+        this.addActionListener(e -> {
+            Storage.setNativeOutput(this.isSelected());
+            // already decoded data is in the old format
+            Audio.INSTANCE.reloadCurrentTrack();
+        });
+    }
+}
@@ -121,7 +121,7 @@ public class LibraryActionMessage extends Message {
                 break;
         }
         Storage.setCurrentActionID(actionId+1);
-        Library.INSTANCE.reloadAll(null);
+        Library.INSTANCE.updateTrack(new File(Storage.LIBRARY, fileName));
 
         if(actionId == WelcomeMessage.waitingForMissedActions) {
 
@@ -23,6 +23,7 @@ import dev.blackilykat.Json;
 import dev.blackilykat.Library;
 import dev.blackilykat.LibraryAction;
 import dev.blackilykat.LibraryActionSenderThread;
+import dev.blackilykat.LibrarySnapshot;
 import dev.blackilykat.ServerConnection;
 import dev.blackilykat.Storage;
 import dev.blackilykat.Track;
@@ -31,8 +32,10 @@ import dev.blackilykat.messages.exceptions.MessageException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static dev.blackilykat.Main.LOGGER;
 
@@ -112,76 +115,58 @@ public class LibraryHashesMessage extends Message {
             Storage.popPendingLibraryAction();
         }
 
-        boolean changes = false;
-        for(Map.Entry<String, Long> entry : hashes.entrySet()) {
-            boolean found = false;
-            boolean matches = false;
-            long clientValue = -1;
-            for(Track track : Library.INSTANCE.tracks) {
-                if(track.getFile().getName().equals(entry.getKey())) {
-                    found = true;
-                    if(track.checksum == entry.getValue()) {
-                        matches = true;
-                    }
-                    clientValue = track.checksum;
-                    break;
-                }
+        // by file name, so checking whether an action explains a difference doesn't go through all of them every time
+        Set<String> added = new HashSet<>();
+        Set<String> removed = new HashSet<>();
+        Set<String> replaced = new HashSet<>();
+        for(LibraryAction libraryAction : actionsSent) {
+            switch(libraryAction.actionType) {
+                case ADD -> added.add(libraryAction.fileName);
+                case REMOVE -> removed.add(libraryAction.fileName);
+                case REPLACE, CHANGE_METADATA -> replaced.add(libraryAction.fileName);
             }
-            if(!found) {
+        }
+
+        LibrarySnapshot library = Library.INSTANCE.getSnapshot();
+        for(Map.Entry<String, Long> entry : hashes.entrySet()) {
+            Track track = library.getTrack(entry.getKey());
+            if(track == null) {
                 LOGGER.warn("Client doesnt have {}", entry.getKey());
-                boolean nevermind = false;
-                for(LibraryAction libraryAction : actionsSent) {
-                    if(libraryAction.actionType != LibraryAction.Type.REMOVE) continue;
-                    if(!libraryAction.fileName.equals(entry.getKey())) continue;
+                if(removed.contains(entry.getKey())) {
                     LOGGER.warn("Nevermind it removed it");
-                    nevermind = true;
-                    break;
-                }
-                if(!nevermind) {
+                } else {
                     try {
                         ServerConnection.INSTANCE.downloadTrack(entry.getKey());
                     } catch(IOException e) {
                         LOGGER.error("Could not download {}", entry.getKey(), e);
                     }
-                    changes = true;
                 }
-            } else if(!matches) {
+            } else if(track.checksum == entry.getValue()) {
+                Storage.setChecksumVerified(track.checksum);
+            } else {
                 //TODO handle
-                LOGGER.warn("!!!!! NO MATCH CHECKSUM {} !!!! (server: {}, client: {})", entry.getKey(), entry.getValue(), clientValue);
-                boolean nevermind = false;
-                for(LibraryAction libraryAction : actionsSent) {
-                    if(libraryAction.actionType != LibraryAction.Type.REPLACE && libraryAction.actionType != LibraryAction.Type.CHANGE_METADATA) continue;
-                    if(!libraryAction.fileName.equals(entry.getKey())) continue;
+                LOGGER.warn("!!!!! NO MATCH CHECKSUM {} !!!! (server: {}, client: {})", entry.getKey(), entry.getValue(), track.checksum);
+                if(replaced.contains(entry.getKey())) {
                     LOGGER.warn("Nevermind it replaced it");
-                    nevermind = true;
-                    break;
                 }
             }
         }
         // already checked checksums, now check for missing only
-        for(Track track : Library.INSTANCE.tracks) {
+        List<LibraryAction> missing = new ArrayList<>();
+        for(Track track : library.tracks) {
             String name = track.getFile().getName();
             if(!hashes.containsKey(name)) {
                 LOGGER.warn("Server doesn't have {}", name);
-
-                boolean nevermind = false;
-                for(LibraryAction libraryAction : actionsSent) {
-                    if(libraryAction.actionType != LibraryAction.Type.ADD) continue;
-                    if(!libraryAction.fileName.equals(name)) continue;
+                if(added.contains(name)) {
                     LOGGER.warn("Nevermind it already sent it");
-                    nevermind = true;
-                    break;
-                }
-                if(!nevermind) {
-                    Storage.pushPendingLibraryAction(new LibraryAction(name, LibraryAction.Type.ADD));
-                    changes = true;
+                } else {
+                    missing.add(new LibraryAction(name, LibraryAction.Type.ADD));
                 }
             }
         }
-        if(changes) {
-            Library.INSTANCE.reloadAll(null);
+        if(!missing.isEmpty()) {
+            Storage.pushPendingLibraryActions(missing);
         }
-
         LibraryActionSenderThread.setAllowed(true);
     }
 
@@ -134,13 +134,7 @@ public class PlaybackSessionListMessage extends Message {
 
             ServerConnection.INSTANCE.send(buffer);
         } else {
-            Track track = null;
-            for(Track t : Library.INSTANCE.tracks) {
-                if(t.getFile().getName().equals(element.track)) {
-                    track = t;
-                    break;
-                }
-            }
+            Track track = Library.INSTANCE.getTrack(element.track);
             if(Audio.INSTANCE.currentSession == session) {
                 Audio.INSTANCE.startPlaying(VOID_BUFFER, track, false);
             } else {
@@ -156,8 +156,8 @@ public class PlaybackSessionUpdateMessage extends Message {
             session.recalculatePosition(VOID_BUFFER, Instant.now());
         }
         if(track != null) {
-            for(Track t : Library.INSTANCE.tracks) {
-                if(!t.getFile().getName().equals(track)) continue;
+            Track t = Library.INSTANCE.getTrack(track);
+            if(t != null) {
                 if(Audio.INSTANCE.currentSession == session) {
                     Audio.INSTANCE.startPlaying(VOID_BUFFER, t, false);
                 } else {
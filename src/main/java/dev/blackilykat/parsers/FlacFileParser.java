@@ -19,169 +19,345 @@ package dev.blackilykat.parsers;
 
 import dev.blackilykat.Audio;
 import dev.blackilykat.Main;
+import dev.blackilykat.PcmRingBuffer;
+import dev.blackilykat.Storage;
 import dev.blackilykat.Track;
 import dev.blackilykat.widgets.playbar.PlayBarWidget;
+import org.kc7bfi.jflac.ChannelPCMProcessor;
 import org.kc7bfi.jflac.FLACDecoder;
-import org.kc7bfi.jflac.PCMProcessor;
+import org.kc7bfi.jflac.frame.Frame;
+import org.kc7bfi.jflac.io.MappedFileInputStream;
 import org.kc7bfi.jflac.metadata.Metadata;
+import org.kc7bfi.jflac.metadata.SeekTable;
 import org.kc7bfi.jflac.metadata.StreamInfo;
-import org.kc7bfi.jflac.util.ByteData;
 
-import java.io.EOFException;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import javax.sound.sampled.AudioFormat;
 
 import static dev.blackilykat.Main.LOGGER;
 
-public class FlacFileParser implements PCMProcessor {
+public class FlacFileParser implements ChannelPCMProcessor {
     public final Audio audio;
     public final Track track;
+    /**
+     * Created once the stream info is read if it wasn't passed to the constructor
+     */
+    public PcmRingBuffer buffer;
     public StreamInfo streamInfo;
 
-    public int bytesProcessed = 0;
-    public FlacFileParser(Audio audio, Track track) {
+    public long bytesProcessed = 0;
+    /**
+     * Decoded data before this position is thrown away instead of being written to the buffer. Used to restart
+     * decoding from the middle of the track.
+     */
+    public final long skipUntil;
+    /**
+     * Whether the decoded data can go in the buffer as is, see {@link Audio#getPlaybackFormat(StreamInfo)}
+     */
+    private boolean passthrough = false;
+
+    /**
+     * One for each output channel, or null if the track is already at the output sample rate
+     */
+    private Resampler[] resamplers = null;
+    private float[] resamplerInput = new float[0];
+    private float[] resamplerOutput = new float[0];
+    private byte[] parsedData = new byte[0];
+
+    /**
+     * How far before the target decoding starts after a seek when resampling. Way more than any resampler's filter
+     * reaches.
+     */
+    private static final int RESAMPLER_WARMUP_SAMPLES = 1024;
+
+    public FlacFileParser(Audio audio, Track track, PcmRingBuffer buffer, long skipUntil) {
         this.audio = audio;
         this.track = track;
+        this.buffer = buffer;
+        this.skipUntil = skipUntil;
     }
 
+    /**
+     * Streams the track's pcm data into a new {@link PcmRingBuffer}, which is set as {@link Track#pcmBuffer} as soon as
+     * the stream info is read. Never returns while the track can still be played: once the end of the file is reached
+     * it waits for a rewind, and only stops when the thread gets interrupted.
+     * <p>
+     * Rewinds jump straight to the right frame using the track's {@link FrameIndex}. That's either one built the first
+     * time the track was decoded all the way through, or one made from the file's seek table until then.
+     */
     public static boolean parse(Track track, Audio audio) {
+        PcmRingBuffer buffer = null;
+        FrameIndex index = track.checksum != -1 ? Storage.frameIndexes.get(track.checksum) : null;
+        // the whole file already matched the server's copy, so frame CRCs would only tell us what we know
+        boolean verifyFrameCRC = !Storage.isChecksumVerified(track.checksum);
+        // built while decoding, and only used once it covers the whole track
+        FrameIndex scanned = null;
+        long from = 0;
         try {
-            FLACDecoder decoder = new FLACDecoder(new FileInputStream(track.getFile()));
-            FlacFileParser instance = new FlacFileParser(audio, track);
-            decoder.addPCMProcessor(instance);
-            decoder.readMetadata();
-            track.loaded = 0;
-            try {
-                decoder.decodeFrames();
-            } catch (EOFException ignored) {}
+            while(true) {
+                try(MappedFileInputStream inputStream = new MappedFileInputStream(track.getFile())) {
+                    FLACDecoder decoder = new FLACDecoder(inputStream);
+                    decoder.setVerifyFrameCRC(verifyFrameCRC);
+                    FlacFileParser instance = new FlacFileParser(audio, track, buffer, from);
+                    decoder.addChannelPCMProcessor(instance);
+                    Metadata[] metadataList = decoder.readMetadata();
+                    if(instance.buffer == null) {
+                        throw new IOException("StreamInfo metadata block missing");
+                    }
+                    buffer = instance.buffer;
+                    track.loaded = from;
+
+                    if(index == null) {
+                        for(Metadata metadata : metadataList) {
+                            if(metadata instanceof SeekTable seekTable) {
+                                index = FrameIndex.fromSeekTable(seekTable, decoder.getFirstFrameOffset());
+                            }
+                        }
+                    }
+                    if(scanned == null && (index == null || !index.complete)) {
+                        scanned = new FrameIndex((long) (instance.streamInfo.getSampleRate() * FrameIndex.SCAN_INTERVAL_SECONDS));
+                    }
+
+                    long startSample = 0;
+                    if(from > 0 && index != null) {
+                        startSample = instance.seek(decoder, index);
+                    }
+                    // frames can only be added as long as none were missed since the last one
+                    boolean scanning = scanned != null
+                            && (scanned.size() == 0 ? startSample == 0 : startSample <= scanned.getSample(scanned.size() - 1));
+
+                    // sequential on purpose, the ring buffer caps how far ahead this gets so decoding faster only
+                    // means holding more of the track in memory
+                    Frame frame;
+                    while(buffer.getRewindTarget() == -1 && (frame = decoder.readNextFrame()) != null) {
+                        if(scanning) {
+                            scanned.add(frame.header.sampleNumber, decoder.getFrameOffset());
+                        }
+                        instance.processPCM(decoder.getChannelSamples(), frame.header.channels, frame.header.blockSize, frame.header.bitsPerSample);
+                    }
+
+                    if(scanning && buffer.getRewindTarget() == -1) {
+                        scanned.complete = true;
+                        scanned.trim();
+                        index = scanned;
+                        scanned = null;
+                        if(track.checksum != -1) {
+                            Storage.frameIndexes.put(track.checksum, index);
+                        }
+                    }
+                }
+                if(buffer.getRewindTarget() == -1) {
+                    buffer.finish();
+                    PlayBarWidget.timeBar.update();
+                    from = buffer.awaitRewind();
+                } else {
+                    from = buffer.getRewindTarget();
+                }
+                from -= from % buffer.format.getFrameSize();
+                buffer.reset(from);
+            }
+        } catch (InterruptedIOException e) {
+            return true;
         } catch (IOException e) {
             LOGGER.error("IO error", e);
             return false;
+        } catch (InterruptedException e) {
+            return true;
         }
-        return true;
+    }
+
+    /**
+     * Moves the decoder to the closest indexed frame before {@link #skipUntil}, so that everything before it doesn't
+     * have to be decoded just to be thrown away.
+     *
+     * @return the sample decoding continues from
+     */
+    private long seek(FLACDecoder decoder, FrameIndex index) throws IOException {
+        AudioFormat format = buffer.format;
+        double rateRatio = format.getFrameRate() / streamInfo.getSampleRate();
+        long target = (long) ((skipUntil / format.getFrameSize()) / rateRatio);
+        if(resamplers != null) {
+            // resamplers start out as if there was silence before, which shouldn't end up in the part that's played
+            target -= RESAMPLER_WARMUP_SAMPLES;
+        }
+        int i = index.find(target);
+        if(i == -1) return 0;
+
+        long sample = index.getSample(i);
+        decoder.seekToFrame(index.getOffset(i), sample);
+        bytesProcessed = (long) (sample * rateRatio) * format.getFrameSize();
+        return sample;
     }
 
     @Override
     public void processStreamInfo(StreamInfo streamInfo) {
-        long unprocessedLength = streamInfo.getTotalSamples() * streamInfo.getBitsPerSample() * streamInfo.getChannels() / 8;
-        track.pcmData = new byte[((Double)(unprocessedLength * (2.0/streamInfo.getBitsPerSample()*8) * ((double) audio.audioFormat.getChannels()/streamInfo.getChannels()) * (audio.audioFormat.getSampleRate() / streamInfo.getSampleRate()))).intValue()];
-        synchronized(track) {
-            track.notifyAll();
+        if(Thread.currentThread().isInterrupted()) {
+            throw new RuntimeException(new InterruptedException());
         }
         this.streamInfo = streamInfo;
-        LOGGER.info("Streaminfo: {}", streamInfo);
+        if(buffer == null) {
+            buffer = new PcmRingBuffer(audio.getPlaybackFormat(streamInfo), Audio.RING_BUFFER_SECONDS);
+            AudioFormat format = buffer.format;
+            buffer.length = (long) (streamInfo.getTotalSamples() * (double) format.getFrameRate() / streamInfo.getSampleRate()) * format.getFrameSize();
+            LOGGER.info("Streaminfo: {}, playing as {}", streamInfo, format);
+        }
+        passthrough = buffer.format != audio.audioFormat;
+        if(!passthrough && streamInfo.getSampleRate() != (int) audio.audioFormat.getSampleRate()) {
+            resamplers = new Resampler[] {
+                    new Resampler(streamInfo.getSampleRate(), (int) audio.audioFormat.getSampleRate()),
+                    new Resampler(streamInfo.getSampleRate(), (int) audio.audioFormat.getSampleRate())
+            };
+        }
+        if(track.pcmBuffer != buffer) {
+            track.pcmBuffer = buffer;
+            synchronized(track) {
+                track.notifyAll();
+            }
 
-        if(audio.currentSession != null) {
-            audio.currentSession.callUpdateListeners();
+            if(audio.currentSession != null) {
+                audio.currentSession.callUpdateListeners();
+            }
         }
     }
 
 
     @Override
-    public void processPCM(ByteData pcm) {
+    public void processPCM(int[][] samples, int channels, int blockSize, int bitsPerSample) {
         // only way to make sure it stops loading. Doesn't seem like it causes issues
         if(Thread.interrupted()) {
             throw new RuntimeException(new InterruptedException());
         }
-        byte[] pcmData = pcm.getData();
 
-        int numChannels = streamInfo.getChannels();
-        int bytesPerSample = streamInfo.getBitsPerSample()/8;
-        int pcmChannelLength = pcm.getLen() / bytesPerSample / numChannels;
-        int parsedDataLength = ((Double)(pcm.getLen() * (2.0/bytesPerSample) * ((double) audio.audioFormat.getChannels()/numChannels) * (audio.audioFormat.getSampleRate() / streamInfo.getSampleRate()))).intValue();
-        // I don't know why this happens but sometimes the length is over by like half a sample?? so like everything
-        // gets messed up audio is clicky channels get mixed up and fun stuff like that
-        parsedDataLength -= parsedDataLength % 4;
-        byte[] parsedData = new byte[parsedDataLength];
+        if(passthrough) {
+            int length = blockSize * buffer.format.getFrameSize();
+            if(parsedData.length < length) {
+                parsedData = new byte[length];
+            }
+            pack(samples, channels, blockSize, bitsPerSample);
+            write(parsedData, length);
+            return;
+        }
+
+        int parsedChannelLength = resamplers == null ? blockSize : resamplers[0].getOutputLength(blockSize);
+        int parsedDataLength = parsedChannelLength * 4;
+        boolean skip = bytesProcessed + parsedDataLength <= skipUntil;
+        // resamplers still need to see the skipped data to keep their state right
+        if(skip && resamplers == null) {
+            bytesProcessed += parsedDataLength;
+            return;
+        }
+
+        if(resamplerInput.length < blockSize) {
+            resamplerInput = new float[blockSize];
+        }
+        if(resamplerOutput.length < parsedChannelLength) {
+            resamplerOutput = new float[parsedChannelLength];
+        }
+        if(parsedData.length < parsedDataLength) {
+            parsedData = new byte[parsedDataLength];
+        }
+        // written in the same byte order as the audio line so it can be played without converting it again
+        boolean littleEndian = !audio.audioFormat.isBigEndian();
+        // how far samples need to be shifted right to end up as 16 bit
+        int shift = bitsPerSample - 16;
 
         for(int i = 0; i < 2; i++) {
-            short[] pcmChannel = new short[pcmChannelLength];
+            // mono goes to both sides, anything past stereo gets dropped
+            int[] channel = samples[channels == 1 ? 0 : i];
 
+            if(resamplers == null) {
+                for(int j = 0; j < blockSize; j++) {
+                    putShort(parsedData, (j*4) + (i*2), toShort(channel[j], shift), littleEndian);
+                }
+            } else {
+                for(int j = 0; j < blockSize; j++) {
+                    resamplerInput[j] = toShort(channel[j], shift);
+                }
+                if(skip) {
+                    resamplers[i].skip(resamplerInput, 0, blockSize);
+                    continue;
+                }
+                int written = resamplers[i].process(resamplerInput, 0, blockSize, resamplerOutput, 0);
+                for(int j = 0; j < written; j++) {
+                    int sample = Math.round(resamplerOutput[j]);
+                    sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+                    putShort(parsedData, (j*4) + (i*2), (short) sample, littleEndian);
+                }
+            }
+        }
+
+        if(skip) {
+            bytesProcessed += parsedDataLength;
+            return;
+        }
+        write(parsedData, parsedDataLength);
+    }
+
+    /**
+     * Interleaves the samples into {@link #parsedData} as little endian bytes, with 8 bit samples unsigned, which is
+     * what {@link Audio#getPlaybackFormat(StreamInfo)} picks for native output.
+     */
+    private void pack(int[][] samples, int channels, int blockSize, int bitsPerSample) {
+        int bytesPerSample = bitsPerSample / 8;
+        int frameSize = channels * bytesPerSample;
+        for(int c = 0; c < channels; c++) {
+            int[] channel = samples[c];
+            int index = c * bytesPerSample;
             switch(bytesPerSample) {
                 case 1 -> {
-                    for(int j = i & (numChannels-1), l = 0; l < pcmChannelLength; j+=numChannels, l++) {
-                        // this mess is because 8 bit pcm is unsigned
-                        pcmChannel[l] = (short) ((((pcmData[j] & 0xFF) << 7) - (Short.MAX_VALUE >> 1)) << 1);
+                    for(int j = 0; j < blockSize; j++, index += frameSize) {
+                        parsedData[index] = (byte) (channel[j] + 0x80);
                     }
                 }
                 case 2 -> {
-                    for(int j = (i & (numChannels-1)) * bytesPerSample, l = 0; l < pcmChannelLength; j+=numChannels*bytesPerSample, l++){
-                        pcmChannel[l] = asShort(pcmData[j], pcmData[j+1], true);
+                    for(int j = 0; j < blockSize; j++, index += frameSize) {
+                        parsedData[index] = (byte) channel[j];
+                        parsedData[index + 1] = (byte) (channel[j] >> 8);
                     }
                 }
                 case 3 -> {
-                    for(int j = (i & (numChannels-1)) * bytesPerSample, l = 0; l < pcmChannelLength; j+=numChannels*bytesPerSample, l++){
-                        pcmChannel[l] = asShort(pcmData[j], pcmData[j+1], pcmData[j+2], true);
-                    }
-                }
-                case 4 -> {
-                    for(int j = (i & (numChannels-1)) * bytesPerSample, l = 0; l < pcmChannelLength; j+=numChannels*bytesPerSample, l++){
-                        pcmChannel[l] = asShort(pcmData[j], pcmData[j+1], pcmData[j+2], pcmData[j+3], true);
+                    for(int j = 0; j < blockSize; j++, index += frameSize) {
+                        parsedData[index] = (byte) channel[j];
+                        parsedData[index + 1] = (byte) (channel[j] >> 8);
+                        parsedData[index + 2] = (byte) (channel[j] >> 16);
                     }
                 }
             }
+        }
+    }
 
-            if(streamInfo.getSampleRate() == (int) audio.audioFormat.getSampleRate()) {
-                for(int j = 0; j < pcmChannelLength; j++) {
-                    byte[] sample = asBytes(pcmChannel[j], true);
-                    parsedData[(j*4) + (i*2)] = sample[0];
-                    parsedData[(j*4) + (i*2) + 1] = sample[1];
-                }
-            } else {
-                int last = (int) ((pcmChannelLength) / (streamInfo.getSampleRate() / audio.audioFormat.getSampleRate()) - 1);
-                for(int j = 0; j <= last; j++) {
-                    double positionSeconds = j / audio.audioFormat.getSampleRate();
-                    double ogSamplePosition = positionSeconds * streamInfo.getSampleRate();
-                    int ogSampleFloored = (int) Math.floor(ogSamplePosition);
-                    double ogSampleMidPercentage = ogSamplePosition - ogSampleFloored;
-                    short averagedSample = (short) ((pcmChannel[ogSampleFloored] * (1 - ogSampleMidPercentage)) + (pcmChannel[ogSampleFloored + 1] * ogSampleMidPercentage));
-                    byte[] sample = asBytes(averagedSample, true);
-                    parsedData[(j * 4) + (i * 2)] = sample[0];
-                    parsedData[(j * 4) + (i * 2) + 1] = sample[1];
-                }
+    /**
+     * Writes the part of the data that's past {@link #skipUntil} to the buffer
+     */
+    private void write(byte[] data, int length) {
+        int skipped = (int) Math.max(0, Math.min(length, skipUntil - bytesProcessed));
+        if(skipped < length) {
+            try {
+                buffer.write(data, skipped, length - skipped);
+            } catch(InterruptedException e) {
+                throw new RuntimeException(e);
             }
         }
-
-        System.arraycopy(parsedData, 0, track.pcmData, bytesProcessed, parsedData.length);
-        bytesProcessed += parsedData.length;
+        bytesProcessed += length;
         track.loaded = bytesProcessed;
         PlayBarWidget.timeBar.update();
     }
 
-    private static short asShort(byte a, byte b, boolean littleEndian) {
-        if(littleEndian) {
-            return (short) (a & 0xFF | ((b & 0xFF) << 8));
-        } else {
-            return (short) (b & 0xFF | ((a & 0xFF) << 8));
-        }
-    }
-
-    private static short asShort(byte a, byte b, byte c, boolean littleEndian) {
-        if(littleEndian) {
-            return (short) ((a & 0xFF | ((b & 0xFF) << 8) | ((c & 0xFF) << 16)) >> 8);
-        } else {
-            return (short) ((c & 0xFF | ((b & 0xFF) << 8) | ((a & 0xFF) << 16)) >> 8);
-        }
-    }
-
-    private static short asShort(byte a, byte b, byte c, byte d, boolean littleEndian) {
-        if(littleEndian) {
-            return (short) ((a & 0xFF | ((b & 0xFF) << 8) | ((c & 0xFF) << 16) | ((d & 0xFF) << 24)) >> 16);
-        } else {
-            return (short) ((d & 0xFF | ((c & 0xFF) << 8) | ((b & 0xFF) << 16) | ((a & 0xFF) << 24)) >> 16);
-        }
+    /**
+     * Scales a sample to 16 bits, shift being how many bits it has past 16 (or negative if it has less)
+     */
+    private static short toShort(int sample, int shift) {
+        return (short) (shift >= 0 ? sample >> shift : sample << -shift);
     }
 
-    private static byte[] asBytes(int a, boolean littleEndian) {
-        byte[] value = new byte[2];
+    private static void putShort(byte[] dst, int index, short value, boolean littleEndian) {
         if(littleEndian) {
-            value[0] = (byte) (a & 0xFF);
-            value[1] = (byte) ((a >> 8) & 0xFF);
+            dst[index] = (byte) (value & 0xFF);
+            dst[index + 1] = (byte) ((value >> 8) & 0xFF);
         } else {
-            value[0] = (byte) ((a >> 8) & 0xFF);
-            value[1] = (byte) (a & 0xFF);
+            dst[index] = (byte) ((value >> 8) & 0xFF);
+            dst[index + 1] = (byte) (value & 0xFF);
         }
-        return value;
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat.parsers;
+
+import org.kc7bfi.jflac.metadata.SeekPoint;
+import org.kc7bfi.jflac.metadata.SeekTable;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Maps sample numbers to the position of the frame they're in, so decoding can start from anywhere in a track without
+ * going through everything before it. Entries are kept sorted by sample number and spaced at least {@link #interval}
+ * samples apart, so it stays small enough to be stored for the whole library.
+ */
+public class FrameIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Samples added to an index built by scanning the file are at least this many seconds apart
+     */
+    public static final double SCAN_INTERVAL_SECONDS = 0.5;
+
+    public final long interval;
+    private long[] samples = new long[64];
+    private long[] offsets = new long[64];
+    private int size = 0;
+    /**
+     * Whether the index covers the whole track
+     */
+    public boolean complete = false;
+
+    public FrameIndex(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Builds an index out of the file's seek table, skipping placeholder points.
+     *
+     * @param firstFrameOffset position of the first frame in the file, see
+     * {@link org.kc7bfi.jflac.FLACDecoder#getFirstFrameOffset()}
+     * @return the index, or null if the seek table has no usable points
+     */
+    public static FrameIndex fromSeekTable(SeekTable seekTable, long firstFrameOffset) {
+        FrameIndex index = new FrameIndex(0);
+        for(int i = 0; i < seekTable.numberOfPoints(); i++) {
+            SeekPoint point = seekTable.getSeekPoint(i);
+            // placeholder points have all bits set, which is -1 once read as a signed long
+            if(point.getSampleNumber() < 0) continue;
+            index.add(point.getSampleNumber(), firstFrameOffset + point.getStreamOffset());
+        }
+        return index.size > 0 ? index : null;
+    }
+
+    /**
+     * Records where a frame is. Ignored if it's too close to (or before) the latest one added.
+     */
+    public void add(long sample, long offset) {
+        if(size > 0 && sample < samples[size - 1] + Math.max(1, interval)) return;
+        if(size == samples.length) {
+            samples = Arrays.copyOf(samples, Math.max(64, size * 2));
+            offsets = Arrays.copyOf(offsets, Math.max(64, size * 2));
+        }
+        samples[size] = sample;
+        offsets[size] = offset;
+        size++;
+    }
+
+    /**
+     * @return the index of the latest entry starting at or before the given sample, or -1 if there's none
+     */
+    public int find(long sample) {
+        int i = Arrays.binarySearch(samples, 0, size, sample);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    public long getSample(int i) {
+        return samples[i];
+    }
+
+    public long getOffset(int i) {
+        return offsets[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops the unused part of the arrays before it gets stored
+     */
+    public void trim() {
+        samples = Arrays.copyOf(samples, size);
+        offsets = Arrays.copyOf(offsets, size);
+    }
+}
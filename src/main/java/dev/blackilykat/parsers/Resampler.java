@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package dev.blackilykat.parsers;
+
+/**
+ * Converts a single channel of pcm audio from one sample rate to another with a Kaiser windowed sinc filter. The
+ * filter is precomputed as a polyphase table, one row of coefficients for each possible position of an output sample
+ * between two input samples.
+ * <p>
+ * The tail of each input is kept for the next call, so feeding a track to it frame by frame gives the exact same
+ * result as feeding it all at once. Use one instance per channel.
+ */
+public class Resampler {
+    /**
+     * How many zero crossings of the sinc function are kept on each side. Higher means a steeper filter.
+     */
+    private static final int ZERO_CROSSINGS = 16;
+    /**
+     * Fraction of the output nyquist frequency that gets through untouched. The rest is the filter's transition band.
+     */
+    private static final double ROLLOFF = 0.95;
+    private static final double KAISER_BETA = 8.6;
+    /**
+     * Rate pairs with a huge common multiple (like 44100 and 44101) would need one row per output sample of the whole
+     * cycle. Past this the position of each output sample gets rounded to the nearest of this many.
+     */
+    private static final int MAX_PHASES = 1024;
+
+    public final int inputRate;
+    public final int outputRate;
+    /**
+     * Each output sample moves forward by decimation / interpolation input samples
+     */
+    private final int interpolation;
+    private final int decimation;
+    private final int phases;
+    private final int taps;
+    private final int halfTaps;
+    /**
+     * Coefficients for every phase, one after the other
+     */
+    private final float[] filter;
+
+    private float[] buffer;
+    private int filled;
+    /**
+     * Index in {@link #buffer} of the input sample right before (or at) the next output sample
+     */
+    private int position;
+    /**
+     * Where the next output sample falls between {@link #position} and the input sample after, out of
+     * {@link #interpolation}
+     */
+    private int phase = 0;
+
+    public Resampler(int inputRate, int outputRate) {
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        int gcd = gcd(inputRate, outputRate);
+        this.interpolation = outputRate / gcd;
+        this.decimation = inputRate / gcd;
+        this.phases = Math.min(interpolation, MAX_PHASES);
+
+        // in cycles per input sample. When downsampling this has to be below the output's nyquist frequency, not the
+        // input's, or everything above it gets folded back down
+        double cutoff = 0.5 * Math.min(1.0, (double) outputRate / inputRate) * ROLLOFF;
+        double halfWidth = ZERO_CROSSINGS / (2 * cutoff);
+        this.halfTaps = (int) Math.ceil(halfWidth);
+        this.taps = halfTaps * 2;
+        this.filter = new float[phases * taps];
+
+        double besselBeta = bessel(KAISER_BETA);
+        for(int p = 0; p < phases; p++) {
+            double fraction = (double) p / phases;
+            double sum = 0;
+            double[] row = new double[taps];
+            for(int j = 0; j < taps; j++) {
+                double t = fraction + halfTaps - 1 - j;
+                double x = t / halfWidth;
+                if(x <= -1 || x >= 1) continue;
+                double window = bessel(KAISER_BETA * Math.sqrt(1 - x * x)) / besselBeta;
+                row[j] = 2 * cutoff * sinc(2 * cutoff * t) * window;
+                sum += row[j];
+            }
+            // normalize every row on its own, otherwise the gain would slightly change with the phase
+            for(int j = 0; j < taps; j++) {
+                filter[p * taps + j] = (float) (row[j] / sum);
+            }
+        }
+
+        // starts as if the track was preceded by silence, so the first output sample lines up with the first input one
+        this.buffer = new float[taps * 64];
+        this.filled = halfTaps - 1;
+        this.position = halfTaps - 1;
+    }
+
+    /**
+     * @return how many samples {@link #process} will output for this many input samples
+     */
+    public int getOutputLength(int inputLength) {
+        int distance = filled + inputLength - halfTaps - position;
+        if(distance <= 0) return 0;
+        return (int) ((((long) distance * interpolation) - phase + decimation - 1) / decimation);
+    }
+
+    /**
+     * Resamples the given input, continuing from where the previous call left off.
+     *
+     * @param output must be able to fit at least {@link #getOutputLength(int)} samples past outputOffset
+     * @return how many samples were written to output
+     */
+    public int process(float[] input, int inputOffset, int inputLength, float[] output, int outputOffset) {
+        append(input, inputOffset, inputLength);
+        int limit = filled - halfTaps;
+        int written = 0;
+        while(position < limit) {
+            int row = (phases == interpolation ? phase : (int) ((long) phase * phases / interpolation)) * taps;
+            int start = position - halfTaps + 1;
+            float sum = 0;
+            for(int j = 0; j < taps; j++) {
+                sum += filter[row + j] * buffer[start + j];
+            }
+            output[outputOffset + written++] = sum;
+
+            phase += decimation;
+            position += phase / interpolation;
+            phase %= interpolation;
+        }
+        discardOld();
+        return written;
+    }
+
+    /**
+     * Moves forward as if {@link #process} was called with this input, without computing any output.
+     *
+     * @return how many samples process would have output
+     */
+    public int skip(float[] input, int inputOffset, int inputLength) {
+        int outputLength = getOutputLength(inputLength);
+        append(input, inputOffset, inputLength);
+        long total = phase + (long) outputLength * decimation;
+        position += (int) (total / interpolation);
+        phase = (int) (total % interpolation);
+        discardOld();
+        return outputLength;
+    }
+
+    private void append(float[] input, int offset, int length) {
+        if(filled + length > buffer.length) {
+            float[] newBuffer = new float[Math.max(buffer.length * 2, filled + length)];
+            System.arraycopy(buffer, 0, newBuffer, 0, filled);
+            buffer = newBuffer;
+        }
+        System.arraycopy(input, offset, buffer, filled, length);
+        filled += length;
+    }
+
+    /**
+     * Drops the input samples that no future output sample can reach
+     */
+    private void discardOld() {
+        int drop = Math.min(filled, position - halfTaps + 1);
+        if(drop <= 0) return;
+        System.arraycopy(buffer, drop, buffer, 0, filled - drop);
+        filled -= drop;
+        position -= drop;
+    }
+
+    private static double sinc(double x) {
+        if(x == 0) return 1;
+        return Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+
+    /**
+     * Zeroth order modified bessel function of the first kind
+     */
+    private static double bessel(double x) {
+        double sum = 1;
+        double term = 1;
+        for(int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if(term < sum * 1e-12) break;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while(b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
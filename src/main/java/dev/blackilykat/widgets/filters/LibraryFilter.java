@@ -18,16 +18,20 @@
 package dev.blackilykat.widgets.filters;
 
 import dev.blackilykat.Library;
+import dev.blackilykat.MetadataStore;
 import dev.blackilykat.PlaybackSession;
 import dev.blackilykat.Track;
-import dev.blackilykat.util.Pair;
 
-import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class LibraryFilter {
     /**
@@ -48,9 +52,9 @@ public class LibraryFilter {
      */
     public String key;
     /**
-     * A list containing all the tracks that match this filter.
+     * Ids in {@link Library#metadata} of all the tracks that match this filter and the ones before it.
      */
-    public Set<Track> matchingTracks = new HashSet<>();
+    public BitSet matchingIds = new BitSet();
     /**
      * All options the user can select.
      */
@@ -89,93 +93,287 @@ public class LibraryFilter {
     }
 
     public void reloadMatching() {
-        matchingTracks.clear();
+        reloadMatching(getInput());
+    }
 
+    /**
+     * Works out which tracks match out of the inverted index in {@link Library#metadata}: the positive options get
+     * OR'd together, the negative ones get removed, and the result is intersected with what the filters before this
+     * one let through.
+     *
+     * @param input ids of the tracks that got through the filters before this one
+     */
+    public void reloadMatching(BitSet input) {
+        MetadataStore metadata = library.metadata;
+        int keyId = metadata.keyId(key);
+
+        BitSet result;
         if(this.getOption(OPTION_EVERYTHING).getState() == LibraryFilterOption.State.POSITIVE) {
-            matchingTracks.addAll(library.filteredTracks);
+            result = (BitSet) input.clone();
         } else {
-            for(LibraryFilterOption option : getOptions()) {
+            result = new BitSet();
+            for(LibraryFilterOption option : options) {
                 if(option.getState() != LibraryFilterOption.State.POSITIVE) continue;
-
-                for(Track track : library.filteredTracks) {
-                    boolean hasKey = false;
-                    for(Pair<String, String> pair : track.metadata) {
-                        if(!key.equalsIgnoreCase(pair.key)) continue;
-
-                        hasKey = true;
-                        if(option.value.equals(pair.value)) {
-                            matchingTracks.add(track);
-                        }
-                    }
-
-                    if(!hasKey) {
-                        LibraryFilterOption unknown = this.getOption(OPTION_UNKNOWN);
-                        if(unknown != null && unknown.getState() == LibraryFilterOption.State.POSITIVE) {
-                            matchingTracks.add(track);
-                        }
-                    }
-                }
+                result.or(getTracksWith(metadata, keyId, option));
             }
+            result.and(input);
         }
 
-        for(LibraryFilterOption option : getOptions()) {
+        for(LibraryFilterOption option : options) {
             if(option.getState() != LibraryFilterOption.State.NEGATIVE) continue;
+            result.andNot(getTracksWith(metadata, keyId, option));
+        }
+        matchingIds = result;
+    }
 
-            for(Track track : library.filteredTracks) {
-                boolean hasKey = false;
+    /**
+     * @return ids of the tracks that got through the filters before this one in its session, or of the whole library
+     * if it's the first one
+     */
+    public BitSet getInput() {
+        BitSet input = null;
+        for(LibraryFilter filter : session.getLibraryFilters()) {
+            if(filter == this) break;
+            input = filter.matchingIds;
+        }
+        return input == null ? library.metadata.allTracks() : input;
+    }
 
-                for(Pair<String, String> pair : track.metadata) {
-                    if(!key.equalsIgnoreCase(pair.key)) continue;
+    private static BitSet getTracksWith(MetadataStore metadata, int keyId, LibraryFilterOption option) {
+        return switch(option.value) {
+            // nothing to add or remove that the check for it being positive didn't already
+            case OPTION_EVERYTHING -> new BitSet();
+            case OPTION_UNKNOWN -> metadata.tracksWithoutKey(keyId);
+            default -> metadata.tracksWith(keyId, metadata.valueId(option.value));
+        };
+    }
 
-                    hasKey = true;
-                    if(option.value.equals(pair.value)) {
-                        matchingTracks.remove(track);
-                    }
-                }
+    /**
+     * @return whether the track gets through this filter with the options as they are now, assuming it got through
+     * the filters before this one
+     */
+    public boolean matches(Track track) {
+        String[] values = library.metadata.getAll(track, key);
+        boolean positive = this.getOption(OPTION_EVERYTHING).getState() == LibraryFilterOption.State.POSITIVE;
+        for(String value : values) {
+            LibraryFilterOption option = this.getOption(value);
+            if(option == null) continue;
+            if(option.getState() == LibraryFilterOption.State.NEGATIVE) return false;
+            if(option.getState() == LibraryFilterOption.State.POSITIVE) positive = true;
+        }
 
-                LibraryFilterOption unknown = this.getOption(OPTION_UNKNOWN);
-                if(unknown != null && !hasKey && unknown.getState() == LibraryFilterOption.State.NEGATIVE) {
-                    matchingTracks.remove(track);
-                }
+        if(values.length == 0) {
+            LibraryFilterOption unknown = this.getOption(OPTION_UNKNOWN);
+            if(unknown != null && unknown.getState() == LibraryFilterOption.State.NEGATIVE) return false;
+            if(unknown != null && unknown.getState() == LibraryFilterOption.State.POSITIVE) positive = true;
+        }
+        return positive;
+    }
+
+    /**
+     * Updates the options and matching tracks for a track that just got through the filters before this one, without
+     * going through every other track again.
+     */
+    public void trackAdded(Track track) {
+        boolean changed = false;
+        String[] values = library.metadata.getAll(track, key);
+        // a track can have the same value more than once, it still only counts once like in countValues
+        for(String newValue : new LinkedHashSet<>(Arrays.asList(values))) {
+            LibraryFilterOption existing = this.getOption(newValue);
+            if(existing != null) {
+                existing.count++;
+                existing.updateButton();
+                continue;
+            }
+
+            // same order reloadOptions puts them in: everything, the sorted values, then unknown
+            int index = 1;
+            while(index < options.size()) {
+                String value = options.get(index).value;
+                if(value.equals(OPTION_UNKNOWN) || value.compareTo(newValue) > 0) break;
+                index++;
+            }
+            LibraryFilterOption option = new LibraryFilterOption(this, newValue);
+            option.count = 1;
+            options.add(index, option);
+            changed = true;
+        }
+
+        if(values.length == 0) {
+            LibraryFilterOption unknown = this.getOption(OPTION_UNKNOWN);
+            if(unknown == null) {
+                unknown = new LibraryFilterOption(this, OPTION_UNKNOWN);
+                options.add(unknown);
+                changed = true;
             }
+            unknown.count++;
+            unknown.updateButton();
+        }
+
+        LibraryFilterOption everything = this.getOption(OPTION_EVERYTHING);
+        everything.count++;
+        everything.updateButton();
+
+        if(changed && panel != null) {
+            panel.reloadOptions();
+        }
+
+        if(matches(track)) {
+            matchingIds.set(track.id);
         }
     }
 
+    /**
+     * Updates the options and matching tracks for a track that is about to be removed from {@link Library#metadata},
+     * without going through every other track again. Options nobody else has get dropped, same as
+     * {@link #reloadOptions()} would.
+     *
+     * @param remaining ids of the tracks that are still getting through the filters before this one
+     * @return false if an option that had been selected had to be dropped, in which case what every filter after this
+     * one matches could change and they should be reloaded from scratch
+     */
+    public boolean trackRemoved(Track track, BitSet remaining) {
+        matchingIds.clear(track.id);
+
+        MetadataStore metadata = library.metadata;
+        int keyId = metadata.keyId(key);
+        List<String> gone = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        int[] valueIds = metadata.getValueIds(track.id, keyId);
+        if(valueIds.length == 0) {
+            if(!metadata.tracksWithoutKey(keyId).intersects(remaining)) {
+                gone.add(OPTION_UNKNOWN);
+            } else {
+                left.add(OPTION_UNKNOWN);
+            }
+        }
+        for(int valueId : valueIds) {
+            String value = metadata.value(valueId);
+            if(gone.contains(value) || left.contains(value)) continue;
+            if(!metadata.anyTrackWith(keyId, valueId, remaining)) {
+                gone.add(value);
+            } else {
+                left.add(value);
+            }
+        }
+
+        boolean changed = false;
+        for(String value : gone) {
+            LibraryFilterOption option = this.getOption(value);
+            if(option == null) continue;
+            if(option.getState() != LibraryFilterOption.State.NONE) return false;
+
+            options.remove(option);
+            changed = true;
+        }
+        left.add(OPTION_EVERYTHING);
+        for(String value : left) {
+            LibraryFilterOption option = this.getOption(value);
+            if(option == null) continue;
+            option.count--;
+            option.updateButton();
+        }
+
+        if(changed && panel != null) {
+            panel.reloadOptions();
+        }
+        return true;
+    }
+
     public void reloadOptions() {
+        BitSet input = getInput();
         options.clear();
         LibraryFilterOption everything = new LibraryFilterOption(this, OPTION_EVERYTHING);
         everything.setState(LibraryFilterOption.State.POSITIVE, false);
+        everything.count = input.cardinality();
         options.add(everything);
-        boolean shouldAddUnknown = false;
-
-        List<LibraryFilterOption> sortedOptions = new ArrayList<>();
-        for(Track track : library.filteredTracks) {
-            boolean hasKey = false;
+        for(Map.Entry<String, Integer> entry : getAvailableValues(input).entrySet()) {
+            LibraryFilterOption option = new LibraryFilterOption(this, entry.getKey());
+            option.count = entry.getValue();
+            options.add(option);
+        }
 
-            for(Pair<String, String> pair : track.metadata) {
-                if(!key.equalsIgnoreCase(pair.key)) continue;
+        if(panel != null) {
+            panel.reloadOptions();
+        }
+    }
 
-                hasKey = true;
-                LibraryFilterOption option = new LibraryFilterOption(this, pair.value);
-                if(!sortedOptions.contains(option)) {
-                    sortedOptions.add(option);
+    /**
+     * Brings the options in line with what the filters before this one let through, keeping the ones that are still
+     * there along with their state instead of making everything from scratch like {@link #reloadOptions()}. The
+     * counts get updated either way.
+     *
+     * @return whether any option was added or removed
+     */
+    public boolean updateOptions() {
+        BitSet input = getInput();
+        Map<String, Integer> counts = getAvailableValues(input);
+        List<String> values = new ArrayList<>(counts.keySet());
+        LibraryFilterOption everything = this.getOption(OPTION_EVERYTHING);
+        if(everything != null && options.size() == values.size() + 1) {
+            boolean same = true;
+            for(int i = 0; i < values.size(); i++) {
+                if(!options.get(i + 1).value.equals(values.get(i))) {
+                    same = false;
+                    break;
                 }
             }
-
-            if(!hasKey) {
-                shouldAddUnknown = true;
+            if(same) {
+                everything.count = input.cardinality();
+                everything.updateButton();
+                for(int i = 0; i < values.size(); i++) {
+                    LibraryFilterOption option = options.get(i + 1);
+                    option.count = counts.get(option.value);
+                    option.updateButton();
+                }
+                return false;
             }
         }
 
-        sortedOptions = sortedOptions.stream().sorted().toList();
-        options.addAll(sortedOptions);
-
-        if(shouldAddUnknown) {
-            options.add(new LibraryFilterOption(this, OPTION_UNKNOWN));
+        Map<String, LibraryFilterOption> oldOptions = new HashMap<>();
+        for(LibraryFilterOption option : options) {
+            oldOptions.put(option.value, option);
         }
+        List<LibraryFilterOption> newOptions = new ArrayList<>(values.size() + 1);
+        if(everything == null) {
+            everything = new LibraryFilterOption(this, OPTION_EVERYTHING);
+            everything.setState(LibraryFilterOption.State.POSITIVE, false);
+        }
+        everything.count = input.cardinality();
+        newOptions.add(everything);
+        for(String value : values) {
+            LibraryFilterOption option = oldOptions.get(value);
+            if(option == null) {
+                option = new LibraryFilterOption(this, value);
+            }
+            option.count = counts.get(value);
+            newOptions.add(option);
+        }
+        options = newOptions;
 
         if(panel != null) {
             panel.reloadOptions();
         }
+        return true;
+    }
+
+    /**
+     * @return every value of {@link #key} the given tracks have along with how many of them have it, sorted, and
+     * followed by {@link #OPTION_UNKNOWN} if any of them doesn't have it
+     */
+    private Map<String, Integer> getAvailableValues(BitSet input) {
+        MetadataStore metadata = library.metadata;
+        Map<Integer, Integer> counts = metadata.countValues(metadata.keyId(key), input);
+        Integer unknown = counts.remove(MetadataStore.NONE);
+
+        Map<String, Integer> sorted = new TreeMap<>();
+        for(Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+            sorted.put(metadata.value(entry.getKey()), entry.getValue());
+        }
+        Map<String, Integer> result = new LinkedHashMap<>(sorted);
+        if(unknown != null) {
+            result.put(OPTION_UNKNOWN, unknown);
+        }
+        return result;
     }
 }
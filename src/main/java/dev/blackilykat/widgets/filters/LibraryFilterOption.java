@@ -21,6 +21,10 @@ public class LibraryFilterOption implements Comparable<LibraryFilterOption> {
     public final LibraryFilter filter;
     public final String value;
     public LibraryFilterPanel.OptionButton button = null;
+    /**
+     * How many of the tracks that got through the filters before this one have this value
+     */
+    public int count = 0;
     private State state = State.NONE;
 
     public LibraryFilterOption(LibraryFilter filter, String value) {
@@ -28,6 +32,15 @@ public class LibraryFilterOption implements Comparable<LibraryFilterOption> {
         this.value = value;
     }
 
+    /**
+     * Makes the button show the current {@link #count}, if there is a button
+     */
+    public void updateButton() {
+        if(button != null) {
+            button.updateText();
+        }
+    }
+
     public State getState() {
         return state;
     }
@@ -17,7 +17,6 @@
 
 package dev.blackilykat.widgets.filters;
 
-import dev.blackilykat.Main;
 import dev.blackilykat.messages.PlaybackSessionUpdateMessage;
 import dev.blackilykat.widgets.ScrollablePanel;
 
@@ -117,6 +116,8 @@ public class LibraryFilterPanel extends JPanel {
         for(LibraryFilterOption option : filter.getOptions()) {
             optionsContainer.add(new OptionButton(option));
         }
+        optionsContainer.revalidate();
+        optionsContainer.repaint();
     }
 
     public static class OptionButton extends JButton {
@@ -130,12 +131,7 @@ public class LibraryFilterPanel extends JPanel {
         public OptionButton(LibraryFilterOption option) {
             this.option = option;
             option.button = this;
-            String buttonText = switch(this.option.value) {
-                case LibraryFilter.OPTION_EVERYTHING -> "All";
-                case LibraryFilter.OPTION_UNKNOWN -> "Unknown";
-                default -> this.option.value;
-            };
-            this.setText(buttonText);
+            updateText();
             setBorderPainted(false);
             setFocusPainted(false);
             setContentAreaFilled(false);
@@ -221,16 +217,22 @@ public class LibraryFilterPanel extends JPanel {
                     repaint();
 
                     option.filter.session.sendFilterUpdate(null);
-                    Main.songListWidget.refreshTracks();
-                    option.filter.library.reloadFilters(null);
-                    Main.libraryFiltersWidget.reloadPanels();
-                    Main.libraryFiltersWidget.reloadElements();
+                    // filters before this one aren't affected, and the panels update their own options if needed
+                    option.filter.library.reloadFilters(null, option.filter);
                     option.filter.library.reloadSorting();
-                    Main.songListWidget.refreshTracks();
                 }
             });
         }
 
+        public void updateText() {
+            String buttonText = switch(this.option.value) {
+                case LibraryFilter.OPTION_EVERYTHING -> "All";
+                case LibraryFilter.OPTION_UNKNOWN -> "Unknown";
+                default -> this.option.value;
+            };
+            this.setText(buttonText + " (" + this.option.count + ")");
+        }
+
         @Override
         public Dimension getPreferredSize() {
             return new Dimension(this.getParent().getParent().getWidth(), (int) super.getMinimumSize().getHeight());
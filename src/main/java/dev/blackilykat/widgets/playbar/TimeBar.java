@@ -59,8 +59,7 @@ public class TimeBar extends JSlider {
     public int getMaximum() {
         Track currentTrack = Audio.INSTANCE.currentSession.getCurrentTrack();
         if(currentTrack == null) return 0;
-        if(currentTrack.pcmData == null) return 0;
-        return currentTrack.pcmData.length;
+        return Audio.INSTANCE.getTrackLength(currentTrack);
     }
 
     public void update() {
@@ -115,10 +114,10 @@ public class TimeBar extends JSlider {
             super.paintTrack(g);
             Track currentTrack = Audio.INSTANCE.currentSession.getCurrentTrack();
             double percent;
-            if(currentTrack == null || currentTrack.pcmData == null) {
+            if(currentTrack == null || currentTrack.pcmBuffer == null) {
                 percent = 0;
             } else {
-                percent = ((double) Audio.INSTANCE.currentSession.getPosition()) / currentTrack.pcmData.length;
+                percent = ((double) Audio.INSTANCE.currentSession.getPosition()) / Audio.INSTANCE.getTrackLength(currentTrack);
             }
             int offset = (int) (percent * trackRect.width);
 
@@ -138,9 +137,9 @@ public class TimeBar extends JSlider {
             error while calculating the song length from the FLAC StreamInfo header. Everything plays fine and audio
             is able to read everything.
              */
-            if(currentTrack != null && currentTrack.pcmData != null && (double) currentTrack.loaded / currentTrack.pcmData.length < 0.99) {
+            if(currentTrack != null && currentTrack.pcmBuffer != null && (double) currentTrack.loaded / currentTrack.pcmBuffer.length < 0.99) {
                 g.setColor(new Color(255, 0, 0, 50));
-                percent = ((double) currentTrack.loaded) / currentTrack.pcmData.length;
+                percent = ((double) currentTrack.loaded) / currentTrack.pcmBuffer.length;
                 percent = Math.min(1, Math.max(0, percent));
                 offset = (int) (percent * trackRect.width);
                 paintTick(g, offset);
@@ -154,10 +153,10 @@ public class TimeBar extends JSlider {
             currentTimeSeconds %= 60;
 
             int totalTimeSeconds;
-            if(currentTrack == null || currentTrack.pcmData == null) {
+            if(currentTrack == null || currentTrack.pcmBuffer == null) {
                 totalTimeSeconds = 0;
             } else  {
-                totalTimeSeconds = (int) (currentTrack.pcmData.length / Audio.INSTANCE.audioFormat.getFrameSize() / Audio.INSTANCE.audioFormat.getSampleRate());
+                totalTimeSeconds = (int) (Audio.INSTANCE.getTrackLength(currentTrack) / Audio.INSTANCE.audioFormat.getFrameSize() / Audio.INSTANCE.audioFormat.getSampleRate());
             }
             // hope no one needs hour marks ()
             int totalTimeMinutes = totalTimeSeconds / 60;
@@ -196,12 +195,12 @@ public class TimeBar extends JSlider {
                 Track currentTrack = Audio.INSTANCE.currentSession.getCurrentTrack();
 
                 if(currentTrack == null) return;
-                if(currentTrack.pcmData == null) return;
+                if(currentTrack.pcmBuffer == null) return;
 
                 double pos = e.getX() - trackRect.getX();
                 double percent = pos / trackRect.width;
                 percent = Math.min(1, Math.max(0, percent));
-                int songPosition = ((int) (percent * currentTrack.pcmData.length));
+                int songPosition = ((int) (percent * Audio.INSTANCE.getTrackLength(currentTrack)));
                 songPosition -= songPosition % Audio.INSTANCE.audioFormat.getFrameSize();
                 Audio.INSTANCE.currentSession.setPosition(null, songPosition, true);
                 ((TimeBar)slider).update();
@@ -17,8 +17,8 @@
 
 package dev.blackilykat.widgets.tracklist;
 
+import dev.blackilykat.Library;
 import dev.blackilykat.Track;
-import dev.blackilykat.util.Pair;
 
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -52,11 +52,8 @@ public record IntegerTrackDataEntry(Integer data) implements TrackDataEntry<Inte
     }
 
     public static IntegerTrackDataEntry create(Track track, TrackDataHeader header) {
-        for(Pair<String, String> metadatum : track.metadata) {
-            if(metadatum.key.equalsIgnoreCase(header.metadataKey)) {
-                return new IntegerTrackDataEntry(Integer.valueOf(metadatum.value));
-            }
-        }
-        return new IntegerTrackDataEntry(null);
+        String[] values = Library.INSTANCE.metadata.getAll(track, header.metadataKey);
+        if(values.length == 0) return new IntegerTrackDataEntry(null);
+        return new IntegerTrackDataEntry(Integer.valueOf(values[0]));
     }
 }
@@ -19,7 +19,8 @@ package dev.blackilykat.widgets.tracklist;
 
 import dev.blackilykat.Audio;
 import dev.blackilykat.Library;
-import dev.blackilykat.LibraryAction;
+import dev.blackilykat.LibraryImporter;
+import dev.blackilykat.LibraryScanner;
 import dev.blackilykat.Main;
 import dev.blackilykat.ServerConnection;
 import dev.blackilykat.Storage;
@@ -38,22 +39,18 @@ import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
+import javax.swing.ProgressMonitor;
 import javax.swing.SpringLayout;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.Files;
 import java.io.File;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -184,7 +181,7 @@ public class SongListWidget extends Widget {
      */
     public void refreshTracksNow() {
         scrollPaneContents.removeAll();
-        for(Track element : Library.INSTANCE.filteredTracks) {
+        for(Track element : Library.INSTANCE.getSnapshot().filteredTracks) {
             scrollPaneContents.add(new TrackPanel(element, this));
         }
         scrollPaneContents.updateUI();
@@ -199,6 +196,34 @@ public class SongListWidget extends Widget {
         });
     }
 
+    /**
+     * Shows a single track that was just added to {@link dev.blackilykat.LibrarySnapshot#filteredTracks}, without rebuilding every other panel
+     *
+     * @param index where it is in the snapshot it was added in. The latest one could already have more changes the
+     *              panels don't have yet
+     */
+    public void addTrack(Track track, int index) {
+        SwingUtilities.invokeLater(() -> {
+            // a full refresh might have gotten to it first
+            if(track.panel != null && track.panel.getParent() == scrollPaneContents) return;
+            scrollPaneContents.add(new TrackPanel(track, this), Math.min(index, scrollPaneContents.getComponentCount()));
+            scrollPaneContents.revalidate();
+            scrollPaneContents.repaint();
+        });
+    }
+
+    /**
+     * Stops showing a single track, without rebuilding every other panel
+     */
+    public void removeTrack(Track track) {
+        SwingUtilities.invokeLater(() -> {
+            if(track.panel == null || track.panel.getParent() != scrollPaneContents) return;
+            scrollPaneContents.remove(track.panel);
+            scrollPaneContents.revalidate();
+            scrollPaneContents.repaint();
+        });
+    }
+
     @Override
     public Dimension getPreferredSize() {
         return new Dimension(this.getParent().getWidth(), -1);
@@ -216,47 +241,30 @@ public class SongListWidget extends Widget {
 
             private void run() {
                 addTrackExecutor.submit(() -> {
-                    try {
-                        JFileChooser chooser = new JFileChooser();
-                        chooser.setMultiSelectionEnabled(true);
-                        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
-                        int returnValue = chooser.showOpenDialog(null);
-                        if(returnValue != JFileChooser.APPROVE_OPTION) {
+                    JFileChooser chooser = new JFileChooser();
+                    chooser.setMultiSelectionEnabled(true);
+                    chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+                    int returnValue = chooser.showOpenDialog(null);
+                    if(returnValue != JFileChooser.APPROVE_OPTION) {
+                        return;
+                    }
+                    List<File> files = recurseInDirectories(chooser.getSelectedFiles());
+
+                    ProgressMonitor monitor = new ProgressMonitor(Main.songListWidget, "Adding tracks", "", 0, files.size());
+                    LibraryImporter importer = new LibraryImporter();
+                    Timer progressTimer = new Timer(100, event -> {
+                        if(monitor.isCanceled()) {
+                            importer.cancel();
                             return;
                         }
-                        List<File> files = recurseInDirectories(chooser.getSelectedFiles());
-                        for(File originalFile : files) {
-                            if(!originalFile.getName().endsWith(".flac")) {
-                                LOGGER.warn("Skipping {} (no .flac extension)", originalFile.getName());
-                                continue;
-                            }
-
-                            try(InputStream is = new FileInputStream(originalFile)) {
-                                byte[] expectedBtyes = new byte[]{'f', 'L', 'a', 'C'};
-                                byte[] actualBytes = new byte[4];
-                                if(is.read(actualBytes) < 4 || !Arrays.equals(expectedBtyes, actualBytes)) {
-                                    LOGGER.warn("Skipping {} (no fLaC magic)", originalFile.getName());
-                                    continue;
-                                }
-                            }
-
-                            File newFile = new File(Storage.LIBRARY, Library.getNewFileName(originalFile));
-                            try {
-                                Files.copy(originalFile.toPath(), newFile.toPath());
-                            } catch(FileAlreadyExistsException e) {
-                                //TODO prompt user for confirmation, for now it's a good enough guess to not add it since it
-                                //     takes the filename, artist and album to build the filename
-                                continue;
-                            }
-
-                            Library.INSTANCE.reloadAll(null);
-
-                            Storage.pushPendingLibraryAction(new LibraryAction(newFile.getName(), LibraryAction.Type.ADD));
-                        }
-
-                    } catch(IOException e) {
-                        LOGGER.error("Unknown error", e);
-                    }
+                        LibraryScanner.Progress progress = importer.getProgress();
+                        monitor.setProgress(progress.filesDone());
+                        monitor.setNote(progress.filesDone() + "/" + files.size());
+                    });
+                    progressTimer.start();
+                    importer.importFiles(files);
+                    progressTimer.stop();
+                    SwingUtilities.invokeLater(monitor::close);
                 });
             }
         });
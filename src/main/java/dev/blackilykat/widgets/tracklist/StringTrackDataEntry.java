@@ -17,8 +17,8 @@
 
 package dev.blackilykat.widgets.tracklist;
 
+import dev.blackilykat.Library;
 import dev.blackilykat.Track;
-import dev.blackilykat.util.Pair;
 
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -48,14 +48,9 @@ public record StringTrackDataEntry(String data) implements TrackDataEntry<String
     }
 
     public static StringTrackDataEntry create(Track track, TrackDataHeader header) {
-        StringBuilder builder = new StringBuilder();
-        for(Pair<String, String> metadatum : track.metadata) {
-            if(metadatum.key.equalsIgnoreCase(header.metadataKey)) {
-                if(!builder.isEmpty()) builder.append(", ");
-                builder.append(metadatum.value);
-            }
-        }
-        if(!builder.isEmpty()) return new StringTrackDataEntry(builder.toString());
-        return new StringTrackDataEntry(null);
+        String[] values = Library.INSTANCE.metadata.getAll(track, header.metadataKey);
+        if(values.length == 0) return new StringTrackDataEntry(null);
+        if(values.length == 1) return new StringTrackDataEntry(values[0]);
+        return new StringTrackDataEntry(String.join(", ", values));
     }
 }
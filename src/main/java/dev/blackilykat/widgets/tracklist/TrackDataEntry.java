@@ -18,10 +18,11 @@
 package dev.blackilykat.widgets.tracklist;
 
 import dev.blackilykat.Library;
+import dev.blackilykat.MetadataStore;
 import dev.blackilykat.Track;
-import dev.blackilykat.util.Pair;
 
 import javax.swing.JComponent;
+import java.util.BitSet;
 
 public interface TrackDataEntry<T extends TrackDataEntry<T>> {
     /**
@@ -64,21 +65,19 @@ public interface TrackDataEntry<T extends TrackDataEntry<T>> {
     static Class<? extends TrackDataEntry<?>> getEntryType(String key, Library library) {
         if(key.equalsIgnoreCase("duration")) return TimeTrackDataEntry.class;
 
-        boolean withKey = false, numbersOnly = true;
-        mainLoop: for(Track track : library.tracks) {
-            for(Pair<String, String> metadatum : track.metadata) {
-                if(!metadatum.key.equalsIgnoreCase(key)) continue;
-                withKey = true;
-                for(int i = 0; i < metadatum.value.length(); i++) {
-                    char c = metadatum.value.charAt(i);
-                    if(c < '0' || c > '9') {
-                        numbersOnly = false;
-                        break mainLoop;
-                    }
+        // each distinct value only needs to be checked once
+        MetadataStore metadata = library.metadata;
+        BitSet values = metadata.distinctValueIds(metadata.keyId(key));
+        if(values.isEmpty()) return StringTrackDataEntry.class;
+        for(int valueId = values.nextSetBit(0); valueId >= 0; valueId = values.nextSetBit(valueId + 1)) {
+            String value = metadata.value(valueId);
+            for(int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if(c < '0' || c > '9') {
+                    return StringTrackDataEntry.class;
                 }
             }
         }
-        if(!withKey || !numbersOnly) return StringTrackDataEntry.class;
         return IntegerTrackDataEntry.class;
     }
 }
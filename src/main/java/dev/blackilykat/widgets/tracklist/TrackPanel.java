@@ -72,7 +72,7 @@ public class TrackPanel extends JPanel {
                 track.getFile().delete();
                 Storage.pushPendingLibraryAction(new LibraryAction(track.getFile().getName(), LibraryAction.Type.REMOVE));
                 LOGGER.info("Deleted track {}", track.getFile().getName());
-                Library.INSTANCE.reloadAll(null);
+                Library.INSTANCE.updateTrack(track.getFile());
             }
         });
         this.popup.add(deleteItem);
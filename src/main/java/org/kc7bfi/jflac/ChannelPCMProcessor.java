@@ -0,0 +1,44 @@
+package org.kc7bfi.jflac;
+
+/**
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ */
+
+import org.kc7bfi.jflac.metadata.StreamInfo;
+
+/**
+ * Like {@link PCMProcessor}, but gets the decoded samples as they come out of the decoder, one int array per channel,
+ * instead of packed into little endian bytes.
+ */
+public interface ChannelPCMProcessor {
+    /**
+     * Called when StreamInfo read.
+     * @param streamInfo The FLAC stream info metadata block
+     */
+    public void processStreamInfo(StreamInfo streamInfo);
+
+    /**
+     * Called when each data frame is decompressed. The arrays belong to the decoder and get overwritten by the next
+     * frame, so anything that needs to outlive the call has to be copied.
+     * @param samples   The samples of each channel, signed, only the first blockSize of each are part of the frame
+     * @param channels  The number of channels, which might be less than samples.length
+     * @param blockSize The number of samples in each channel
+     * @param bitsPerSample The number of significant bits in each sample
+     */
+    public void processPCM(int[][] samples, int channels, int blockSize, int bitsPerSample);
+}
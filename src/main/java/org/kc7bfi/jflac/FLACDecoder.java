@@ -58,6 +58,7 @@ public class FLACDecoder {
     
     private BitInputStream bitStream;
     private ChannelData[] channelData = new ChannelData[Constants.MAX_CHANNELS];
+    private int[][] channelSamples = new int[Constants.MAX_CHANNELS][]; // output arrays of channelData
     private int outputCapacity;
     private int outputChannels;
     private long samplesDecoded;
@@ -72,9 +73,13 @@ public class FLACDecoder {
     private int blockSize; // in samples (per channel)
     private InputStream inputStream;
     private int metadataLength;
+    private long firstFrameOffset = -1;
+    private long frameOffset = -1;
     
     private int badFrames;
     private boolean eof = false;
+    private boolean frameValid = false;
+    private boolean verifyFrameCRC = true;
     
     private FrameListeners frameListeners = new FrameListeners();
     private PCMProcessors pcmProcessors = new PCMProcessors();
@@ -104,6 +109,16 @@ public class FLACDecoder {
         //state = DECODER_SEARCH_FOR_METADATA;
     }
     
+    /**
+     * Constructor for decoding frames from the middle of a stream whose metadata was already read elsewhere.
+     * @param inputStream    The input stream to read data from
+     * @param streamInfo    The StreamInfo of the stream
+     */
+    FLACDecoder(InputStream inputStream, StreamInfo streamInfo) {
+        this(inputStream);
+        this.streamInfo = streamInfo;
+    }
+    
     /**
      * Return the parsed StreamInfo Metadata record.
      * @return  The StreamInfo
@@ -168,6 +183,32 @@ public class FLACDecoder {
         pcmProcessors.removePCMProcessor(processor);
     }
     
+    /**
+     * Add a processor that gets the samples of each channel. Frames only get packed into bytes if there also is a
+     * regular PCM processor.
+     * @param processor  The processor listener to add
+     */
+    public void addChannelPCMProcessor(ChannelPCMProcessor processor) {
+        pcmProcessors.addChannelPCMProcessor(processor);
+    }
+    
+    /**
+     * Remove a processor that gets the samples of each channel.
+     * @param processor  The processor listener to remove
+     */
+    public void removeChannelPCMProcessor(ChannelPCMProcessor processor) {
+        pcmProcessors.removeChannelPCMProcessor(processor);
+    }
+    
+    /**
+     * Return the decoded samples of the last frame read, one array per channel. Only the first blockSize samples of
+     * each array are part of the frame, and the arrays get reused for the next one.
+     * @return  The samples of each channel
+     */
+    public int[][] getChannelSamples() {
+        return channelSamples;
+    }
+    
     /**
      * return length of metadata, so can be considered as first frame offset
      * @return
@@ -176,9 +217,44 @@ public class FLACDecoder {
     	return metadataLength;
     }
     
+    /**
+     * return the position of the first frame in the stream, which is what seek table offsets are relative to.
+     * Only known after {@link #readMetadata()}.
+     * @return the first frame offset, or -1 if unknown
+     */
+    public long getFirstFrameOffset() {
+        return firstFrameOffset;
+    }
+    
+    /**
+     * return the position in the stream of the frame last returned by {@link #readNextFrame()}.
+     * @return the frame offset, or -1 if no frame was read yet
+     */
+    public long getFrameOffset() {
+        return frameOffset;
+    }
+    
+    /**
+     * Move to the start of a frame, so that the next {@link #readNextFrame()} returns it. Only works on a
+     * RandomFileInputStream.
+     * @param offset    The position of the frame in the stream
+     * @param sampleNumber  The number of the first sample in the frame
+     * @throws IOException  On error seeking, or if the stream isn't a RandomFileInputStream
+     */
+    public void seekToFrame(long offset, long sampleNumber) throws IOException {
+        if (!(inputStream instanceof RandomFileInputStream)) throw new IOException("Not a RandomFileInputStream: " + inputStream.getClass().getName());
+        ((RandomFileInputStream) inputStream).seek(offset);
+        bitStream.reset(offset);
+        samplesDecoded = sampleNumber;
+        eof = false;
+    }
+    
     private boolean callPCMProcessors(Frame frame) {
-    	ByteData bd = decodeFrame(frame, null);
-        pcmProcessors.processPCM(bd);
+        if (pcmProcessors.hasBytePCMProcessors()) {
+            ByteData bd = decodeFrame(frame, null);
+            pcmProcessors.processPCM(bd);
+        }
+        pcmProcessors.processPCM(channelSamples, frame.header.channels, frame.header.blockSize, frame.header.bitsPerSample);
         return pcmProcessors.isCanceled() == false;
     }
     
@@ -251,6 +327,46 @@ public class FLACDecoder {
             metadataList.add(metadata);
             metadataLength += metadata.getLength();
         } while (!metadata.isLast());
+        firstFrameOffset = bitStream.getPosition();
+        return metadataList.toArray(new Metadata[metadataList.size()]);
+    }
+    
+    /**
+     * Read the metadata blocks, but only parse the StreamInfo and Vorbis comments. Everything else (pictures, padding,
+     * seek tables...) gets skipped over without being read, which adds up with big embedded cover art. Leaves the
+     * stream right before the first frame, same as {@link #readMetadata()}.
+     * @return  The StreamInfo and VorbisComment blocks, in the order they are in the stream
+     * @throws IOException  On read error
+     */
+    public Metadata[] scanMetadata() throws IOException {
+        readStreamSync();
+        Vector<Metadata> metadataList = new Vector<Metadata>();
+        metadataLength = 0;
+        boolean isLast;
+        do {
+            isLast = (bitStream.readRawUInt(Metadata.STREAM_METADATA_IS_LAST_LEN) != 0);
+            int type = bitStream.readRawUInt(Metadata.STREAM_METADATA_TYPE_LEN);
+            int length = bitStream.readRawUInt(Metadata.STREAM_METADATA_LENGTH_LEN);
+            
+            Metadata metadata = null;
+            if (type == Metadata.METADATA_TYPE_STREAMINFO) {
+                metadata = new StreamInfo(bitStream, length, isLast);
+                if (((StreamInfo)metadata).getTotalSamples() > 0) {
+                    streamInfo = (StreamInfo)metadata;
+                    pcmProcessors.processStreamInfo(streamInfo);
+                }
+            } else if (type == Metadata.METADATA_TYPE_VORBIS_COMMENT) {
+                metadata = new VorbisComment(bitStream, length, isLast);
+            } else {
+                bitStream.readByteBlockAlignedNoCRC(null, length);
+            }
+            if (metadata != null) {
+                metadataList.add(metadata);
+                frameListeners.processMetadata(metadata);
+            }
+            metadataLength += length + (Metadata.STREAM_METADATA_IS_LAST_LEN + Metadata.STREAM_METADATA_TYPE_LEN + Metadata.STREAM_METADATA_LENGTH_LEN) / 8;
+        } while (!isLast);
+        firstFrameOffset = bitStream.getPosition();
         return metadataList.toArray(new Metadata[metadataList.size()]);
     }
     
@@ -811,9 +927,11 @@ public class FLACDecoder {
         if (size <= outputCapacity && channels <= outputChannels) return;
         
         Arrays.fill(channelData, null);
+        Arrays.fill(channelSamples, null);
         
         for (int i = 0; i < channels; i++) {
             channelData[i] = new ChannelData(size);
+            channelSamples[i] = channelData[i].getOutput();
         }
         
         outputCapacity = size;
@@ -913,7 +1031,7 @@ public class FLACDecoder {
         if (streamInfo != null && (streamInfo.getTotalSamples() > 0)) {
             if (samplesDecoded >= streamInfo.getTotalSamples()) {
                 //state = DECODER_END_OF_STREAM;
-                return;
+                throw new EOFException();
             }
         }
         
@@ -933,6 +1051,7 @@ public class FLACDecoder {
                     /* we have to check if we just read two 0xff's in a row; the second may actually be the beginning of the sync code */
                     /* else we have to check if the second byte is the end of a sync code */
                     if (x >> 2 == 0x3e) { /* MAGIC NUMBER for the last 6 sync bits */
+                        frameOffset = bitStream.getPosition() - 1;
                         headerWarmup[1] = (byte) bitStream.readRawUInt(8);
                         //state = DECODER_READ_FRAME;
                         return;
@@ -946,6 +1065,8 @@ public class FLACDecoder {
         } catch (EOFException e) {
             if (!first) frameListeners.processError("FindSync LOST_SYNC: Left over data in file");
             //state = DECODER_END_OF_STREAM;
+            // returning would make the caller try to read a frame from nothing, which never ends
+            throw e;
         }
     }
     
@@ -1009,7 +1130,8 @@ public class FLACDecoder {
         // Read the frame CRC-16 from the footer and check
         frameCRC = bitStream.getReadCRC16();
         frame.setCRC((short)bitStream.readRawUInt(FRAME_FOOTER_CRC_LEN));
-        if (frameCRC == frame.getCRC()) {
+        frameValid = !verifyFrameCRC || frameCRC == frame.getCRC();
+        if (frameValid) {
             /* Undo any special channel coding */
             switch (frame.header.channelAssignment) {
             case Constants.CHANNEL_ASSIGNMENT_INDEPENDENT :
@@ -1119,6 +1241,23 @@ public class FLACDecoder {
         }
     }
     
+    /**
+     * Choose whether the CRC-16 at the end of each frame gets checked. Skipping it saves a bit of time on files that
+     * are already known to be intact, but a corrupted frame then decodes to garbage instead of silence.
+     * @param verify    True to check frame CRCs, which is the default
+     */
+    public void setVerifyFrameCRC(boolean verify) {
+        verifyFrameCRC = verify;
+        bitStream.setCRCEnabled(verify);
+    }
+    
+    /**
+     * @return  True if frame CRCs get checked
+     */
+    public boolean isVerifyFrameCRC() {
+        return verifyFrameCRC;
+    }
+    
     /**
      * Get the number of samples decoded.
      * @return Returns the samples Decoded.
@@ -1137,6 +1276,13 @@ public class FLACDecoder {
     public int getBadFrames() {
         return badFrames;
     }
+    /**
+     * @return Returns true if the CRC of the last frame read matched.
+     */
+    boolean isFrameValid() {
+        return frameValid;
+    }
+    
     /**
      * @return Returns true if end-of-file.
      */
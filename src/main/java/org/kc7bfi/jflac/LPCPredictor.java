@@ -202,7 +202,8 @@ public class LPCPredictor {
      */
     
     /**
-     * Restore the signal from the LPC compression.
+     * Restore the signal from the LPC compression. Orders up to the subset limit of 12 go through a kernel unrolled for
+     * that order, where the coefficients live in locals.
      * @param residual  The residual signal
      * @param dataLen   The length of the residual data
      * @param qlpCoeff
@@ -213,6 +214,46 @@ public class LPCPredictor {
      */
     public static void restoreSignal(int[] residual, int dataLen, int[] qlpCoeff, int order, int lpQuantization, int[] data, int startAt) {
         //System.out.println("Q="+lpQuantization);
+        switch (order) {
+            case 1 :
+                restoreSignal1(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 2 :
+                restoreSignal2(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 3 :
+                restoreSignal3(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 4 :
+                restoreSignal4(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 5 :
+                restoreSignal5(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 6 :
+                restoreSignal6(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 7 :
+                restoreSignal7(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 8 :
+                restoreSignal8(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 9 :
+                restoreSignal9(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 10 :
+                restoreSignal10(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 11 :
+                restoreSignal11(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 12 :
+                restoreSignal12(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            default :
+        }
+        // orders past the subset limit are rare enough to not bother
         for (int i = 0; i < dataLen; i++) {
             int sum = 0;
             for (int j = 0; j < order; j++) {
@@ -228,7 +269,8 @@ public class LPCPredictor {
     }
     
     /**
-     * Restore the signal from the LPC compression.
+     * Restore the signal from the LPC compression, summing in a long. Needed when the samples and coefficients are
+     * wide enough for the sum to overflow an int, like with most 24 bit streams.
      * @param residual  The residual signal
      * @param dataLen   The length of the residual data
      * @param qlpCoeff
@@ -238,6 +280,45 @@ public class LPCPredictor {
      * @param startAt   The starting position in the data array
      */
     public static void restoreSignalWide(int[] residual, int dataLen, int[] qlpCoeff, int order, int lpQuantization, int[] data, int startAt) {
+        switch (order) {
+            case 1 :
+                restoreSignalWide1(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 2 :
+                restoreSignalWide2(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 3 :
+                restoreSignalWide3(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 4 :
+                restoreSignalWide4(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 5 :
+                restoreSignalWide5(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 6 :
+                restoreSignalWide6(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 7 :
+                restoreSignalWide7(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 8 :
+                restoreSignalWide8(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 9 :
+                restoreSignalWide9(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 10 :
+                restoreSignalWide10(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 11 :
+                restoreSignalWide11(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            case 12 :
+                restoreSignalWide12(residual, dataLen, qlpCoeff, lpQuantization, data, startAt);
+                return;
+            default :
+        }
         for (int i = 0; i < dataLen; i++) {
             long sum = 0;
             for (int j = 0; j < order; j++)
@@ -246,6 +327,258 @@ public class LPCPredictor {
         }
     }
     
+    private static void restoreSignal1(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal2(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal3(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal4(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal5(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal6(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal7(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        int c6 = qlpCoeff[6];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal8(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        int c6 = qlpCoeff[6], c7 = qlpCoeff[7];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal9(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        int c6 = qlpCoeff[6], c7 = qlpCoeff[7], c8 = qlpCoeff[8];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8]
+                    + c8 * data[n - 9];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal10(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        int c6 = qlpCoeff[6], c7 = qlpCoeff[7], c8 = qlpCoeff[8], c9 = qlpCoeff[9];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8]
+                    + c8 * data[n - 9] + c9 * data[n - 10];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal11(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        int c6 = qlpCoeff[6], c7 = qlpCoeff[7], c8 = qlpCoeff[8], c9 = qlpCoeff[9], c10 = qlpCoeff[10];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8]
+                    + c8 * data[n - 9] + c9 * data[n - 10] + c10 * data[n - 11];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignal12(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        int c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        int c6 = qlpCoeff[6], c7 = qlpCoeff[7], c8 = qlpCoeff[8], c9 = qlpCoeff[9], c10 = qlpCoeff[10], c11 = qlpCoeff[11];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            int sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8]
+                    + c8 * data[n - 9] + c9 * data[n - 10] + c10 * data[n - 11] + c11 * data[n - 12];
+            data[n] = residual[i] + (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide1(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide2(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide3(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide4(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide5(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide6(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide7(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        long c6 = qlpCoeff[6];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide8(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        long c6 = qlpCoeff[6], c7 = qlpCoeff[7];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide9(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        long c6 = qlpCoeff[6], c7 = qlpCoeff[7], c8 = qlpCoeff[8];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8]
+                    + c8 * data[n - 9];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide10(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        long c6 = qlpCoeff[6], c7 = qlpCoeff[7], c8 = qlpCoeff[8], c9 = qlpCoeff[9];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8]
+                    + c8 * data[n - 9] + c9 * data[n - 10];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide11(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        long c6 = qlpCoeff[6], c7 = qlpCoeff[7], c8 = qlpCoeff[8], c9 = qlpCoeff[9], c10 = qlpCoeff[10];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8]
+                    + c8 * data[n - 9] + c9 * data[n - 10] + c10 * data[n - 11];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
+    private static void restoreSignalWide12(int[] residual, int dataLen, int[] qlpCoeff, int lpQuantization, int[] data, int startAt) {
+        long c0 = qlpCoeff[0], c1 = qlpCoeff[1], c2 = qlpCoeff[2], c3 = qlpCoeff[3], c4 = qlpCoeff[4], c5 = qlpCoeff[5];
+        long c6 = qlpCoeff[6], c7 = qlpCoeff[7], c8 = qlpCoeff[8], c9 = qlpCoeff[9], c10 = qlpCoeff[10], c11 = qlpCoeff[11];
+        for (int i = 0; i < dataLen; i++) {
+            int n = startAt + i;
+            long sum = c0 * data[n - 1] + c1 * data[n - 2] + c2 * data[n - 3] + c3 * data[n - 4]
+                    + c4 * data[n - 5] + c5 * data[n - 6] + c6 * data[n - 7] + c7 * data[n - 8]
+                    + c8 * data[n - 9] + c9 * data[n - 10] + c10 * data[n - 11] + c11 * data[n - 12];
+            data[n] = residual[i] + (int) (sum >> lpQuantization);
+        }
+    }
+    
     /*
      double FLAC__lpc_compute_expected_bits_per_residual_sample(double lpc_error, int total_samples)
      {
@@ -19,6 +19,7 @@ import org.kc7bfi.jflac.util.ByteData;
  */
 class PCMProcessors implements PCMProcessor {
     private HashSet pcmProcessors = new HashSet();
+    private HashSet<ChannelPCMProcessor> channelPCMProcessors = new HashSet<ChannelPCMProcessor>();
     
     /**
      * Add a PCM processor.
@@ -40,6 +41,26 @@ class PCMProcessors implements PCMProcessor {
         }
     }
     
+    /**
+     * Add a processor that gets the samples of each channel.
+     * @param processor  The processor listener to add
+     */
+    public void addChannelPCMProcessor(ChannelPCMProcessor processor) {
+        synchronized (pcmProcessors) {
+            channelPCMProcessors.add(processor);
+        }
+    }
+     
+    /**
+     * Remove a processor that gets the samples of each channel.
+     * @param processor  The processor listener to remove
+     */
+    public void removeChannelPCMProcessor(ChannelPCMProcessor processor) {
+        synchronized (pcmProcessors) {
+            channelPCMProcessors.remove(processor);
+        }
+    }
+    
     /**
      * Process the StreamInfo block.
      * @param info the StreamInfo block
@@ -52,6 +73,11 @@ class PCMProcessors implements PCMProcessor {
                 PCMProcessor processor = (PCMProcessor)it.next();
                 processor.processStreamInfo(info);
             }
+            Iterator<ChannelPCMProcessor> channelIt = channelPCMProcessors.iterator();
+            while (channelIt.hasNext()) {
+                ChannelPCMProcessor processor = channelIt.next();
+                processor.processStreamInfo(info);
+            }
         }
     }
     
@@ -70,8 +96,31 @@ class PCMProcessors implements PCMProcessor {
         }
     }
 
+    /**
+     * Process the decoded samples of each channel.
+     * @see ChannelPCMProcessor#processPCM(int[][], int, int, int)
+     */
+    public void processPCM(int[][] samples, int channels, int blockSize, int bitsPerSample) {
+        synchronized (pcmProcessors) {
+            Iterator<ChannelPCMProcessor> it = channelPCMProcessors.iterator();
+            while (it.hasNext()) {
+                ChannelPCMProcessor processor = it.next();
+                processor.processPCM(samples, channels, blockSize, bitsPerSample);
+            }
+        }
+    }
+    
+    /**
+     * @return true if any processor wants the PCM data packed into bytes
+     */
+    public boolean hasBytePCMProcessors() {
+        synchronized (pcmProcessors) {
+            return pcmProcessors.size() > 0;
+        }
+    }
+
 	public boolean isCanceled() {
-		return pcmProcessors.size() == 0;
+		return pcmProcessors.size() == 0 && channelPCMProcessors.size() == 0;
 	}
 
 }
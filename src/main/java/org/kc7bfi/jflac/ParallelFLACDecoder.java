@@ -0,0 +1,201 @@
+package org.kc7bfi.jflac;
+
+/**
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.kc7bfi.jflac.frame.Frame;
+import org.kc7bfi.jflac.io.MappedFileInputStream;
+import org.kc7bfi.jflac.metadata.StreamInfo;
+
+/**
+ * Decodes the frames of a FLAC file on several threads at once, returning them in order.
+ *
+ * The file is split into chunks of {@link #CHUNK_SIZE} bytes. Each chunk is decoded on its own by a task on the
+ * given pool: it syncs to the first valid frame starting in the chunk and decodes every frame that starts before the
+ * next chunk does. Only a few chunks are decoded ahead of what has been read, so memory use stays bounded no matter
+ * how long the file is.
+ *
+ * This is meant for decoding whole files as fast as possible, like full-track loads or analysing the library. It
+ * keeps twice as many chunks in flight as the pool has threads, so for streaming playback, where the reader can only
+ * take so much at once anyway, use {@link FLACDecoder} directly.
+ */
+public class ParallelFLACDecoder implements AutoCloseable {
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    /** Mapped once and shared by every chunk through {@link MappedFileInputStream#duplicate()}. */
+    private final MappedFileInputStream source;
+    private final StreamInfo streamInfo;
+    private final ForkJoinPool pool;
+    private final long length;
+    private final long startOffset;
+    private final int maxPendingChunks;
+    private final boolean verifyFrameCRC;
+    private final ArrayDeque<ForkJoinTask<List<DecodedFrame>>> pending = new ArrayDeque<ForkJoinTask<List<DecodedFrame>>>();
+    private long nextChunkStart;
+    private List<DecodedFrame> current = null;
+    private int currentIndex = 0;
+
+    /**
+     * A frame decoded to PCM.
+     */
+    public static class DecodedFrame {
+        /** Position of the frame in the file. */
+        public final long offset;
+        /** Number of the first sample in the frame. */
+        public final long sampleNumber;
+        /** The samples of each channel, as {@link FLACDecoder#getChannelSamples()} would have them. */
+        public final int[][] samples;
+        /** Number of samples in each channel. */
+        public final int blockSize;
+        /** Number of significant bits in each sample. */
+        public final int bitsPerSample;
+
+        DecodedFrame(long offset, long sampleNumber, int[][] samples, int blockSize, int bitsPerSample) {
+            this.offset = offset;
+            this.sampleNumber = sampleNumber;
+            this.samples = samples;
+            this.blockSize = blockSize;
+            this.bitsPerSample = bitsPerSample;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param file  The FLAC file
+     * @param streamInfo    The StreamInfo of the file
+     * @param startOffset   Position of the first frame to decode, which must be the start of a frame
+     * @param pool  The pool to decode on
+     * @throws IOException  If the file can't be read
+     */
+    public ParallelFLACDecoder(File file, StreamInfo streamInfo, long startOffset, ForkJoinPool pool) throws IOException {
+        this(file, streamInfo, startOffset, pool, true);
+    }
+
+    /**
+     * Constructor.
+     * @param file  The FLAC file
+     * @param streamInfo    The StreamInfo of the file
+     * @param startOffset   Position of the first frame to decode, which must be the start of a frame
+     * @param pool  The pool to decode on
+     * @param verifyFrameCRC    False to skip checking frame CRCs, see {@link FLACDecoder#setVerifyFrameCRC(boolean)}.
+     *                          They still get checked while looking for the first frame of each chunk.
+     * @throws IOException  If the file can't be read
+     */
+    public ParallelFLACDecoder(File file, StreamInfo streamInfo, long startOffset, ForkJoinPool pool, boolean verifyFrameCRC) throws IOException {
+        this.source = new MappedFileInputStream(file);
+        this.verifyFrameCRC = verifyFrameCRC;
+        this.streamInfo = streamInfo;
+        this.pool = pool;
+        this.length = file.length();
+        this.startOffset = startOffset;
+        this.nextChunkStart = startOffset;
+        // enough to keep every thread busy while the oldest chunk is being read
+        this.maxPendingChunks = pool.getParallelism() * 2;
+        submitChunks();
+    }
+
+    /**
+     * Read the next frame, waiting for it to be decoded if needed.
+     * @return  The next frame, or null at the end of the file
+     * @throws IOException  On read error
+     * @throws InterruptedIOException   If the thread gets interrupted while waiting
+     */
+    public DecodedFrame readNextFrame() throws IOException {
+        while (current == null || currentIndex >= current.size()) {
+            ForkJoinTask<List<DecodedFrame>> task = pending.poll();
+            if (task == null) return null;
+            try {
+                current = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+            currentIndex = 0;
+            submitChunks();
+        }
+        return current.get(currentIndex++);
+    }
+
+    /**
+     * Stop decoding whatever is still pending.
+     * @throws IOException  If the file can't be closed
+     */
+    public void close() throws IOException {
+        for (ForkJoinTask<List<DecodedFrame>> task : pending) {
+            task.cancel(false);
+        }
+        pending.clear();
+        // chunks still being decoded keep their view of the mapping, which stays valid after the file is closed
+        source.close();
+    }
+
+    private void submitChunks() {
+        while (pending.size() < maxPendingChunks && nextChunkStart < length) {
+            final long start = nextChunkStart;
+            final long end = Math.min(length, start + CHUNK_SIZE);
+            // the first chunk starts right at a frame, later ones have to look for one
+            final boolean synced = start == startOffset;
+            pending.add(pool.submit(() -> decodeChunk(start, end, synced)));
+            nextChunkStart = end;
+        }
+    }
+
+    /**
+     * Decode every frame starting between start (inclusive) and end (exclusive).
+     */
+    private List<DecodedFrame> decodeChunk(long start, long end, boolean synced) throws IOException {
+        List<DecodedFrame> frames = new ArrayList<DecodedFrame>();
+        try (MappedFileInputStream inputStream = source.duplicate()) {
+            FLACDecoder decoder = new FLACDecoder(inputStream, streamInfo);
+            decoder.seekToFrame(start, 0);
+
+            Frame frame = decoder.readNextFrame();
+            // skip whatever looks like a frame but isn't one, so that every chunk agrees on where frames are
+            while (!synced && frame != null && !decoder.isFrameValid() && decoder.getFrameOffset() < end) {
+                frame = decoder.readNextFrame();
+            }
+            decoder.setVerifyFrameCRC(verifyFrameCRC);
+            // it's only used to know when to stop, but it starts out wrong since the decoder didn't start from the top
+            if (frame != null) decoder.setSamplesDecoded(frame.header.sampleNumber + frame.header.blockSize);
+            while (frame != null && decoder.getFrameOffset() < end) {
+                int[][] samples = new int[frame.header.channels][];
+                for (int channel = 0; channel < samples.length; channel++) {
+                    samples[channel] = Arrays.copyOf(decoder.getChannelSamples()[channel], frame.header.blockSize);
+                }
+                frames.add(new DecodedFrame(decoder.getFrameOffset(), frame.header.sampleNumber, samples, frame.header.blockSize, frame.header.bitsPerSample));
+                frame = decoder.readNextFrame();
+            }
+        }
+        return frames;
+    }
+}
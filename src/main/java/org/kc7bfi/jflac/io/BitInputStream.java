@@ -22,6 +22,9 @@ package org.kc7bfi.jflac.io;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 
 import org.kc7bfi.jflac.util.ByteData;
 import org.kc7bfi.jflac.util.CRC16;
@@ -29,35 +32,49 @@ import org.kc7bfi.jflac.util.CRC16;
 
 /**
  * Bit-wide input stream.
+ * 
+ * Bits are served from a 64-bit cache that gets refilled a whole word at a time from a large byte buffer, so most
+ * reads are just a shift. The CRC-16 isn't updated as bits are read: it is computed over the whole range of bytes
+ * consumed since {@link #resetReadCRC16(short)} once {@link #getReadCRC16()} is called (or before those bytes get
+ * dropped from the buffer).
  * @author kc7bfi
  */
 public class BitInputStream {
-    private static final int BITS_PER_BLURB = 8;
-    private static final int BITS_PER_BLURB_LOG2 = 3;
-    private static final byte BLURB_TOP_BIT_ONE = ((byte) 0x80);
-    //private static final long[] MASK32 = new long[]{0, 0x0000000000000001, 0x0000000000000003, 0x0000000000000007, 0x000000000000000F,
-    //        0x000000000000001F, 0x000000000000003F, 0x000000000000007F, 0x00000000000000FF, 0x00000000000001FF, 0x00000000000003FF,
-    //        0x00000000000007FF, 0x0000000000000FFF, 0x0000000000001FFF, 0x0000000000003FFF, 0x0000000000007FFF, 0x000000000000FFFF,
-    //        0x000000000001FFFF, 0x000000000003FFFF, 0x000000000007FFFF, 0x00000000000FFFFF, 0x00000000001FFFFF, 0x00000000003FFFFF,
-    //        0x00000000007FFFFF, 0x0000000000FFFFFF, 0x0000000001FFFFFF, 0x0000000003FFFFFF, 0x0000000007FFFFFF, 0x000000000FFFFFFF,
-    //        0x000000001FFFFFFF, 0x000000003FFFFFFF, 0x000000007FFFFFFF, 0x00000000FFFFFFFF, 0x00000001FFFFFFFFL,
-    //        0x00000003FFFFFFFFL, 0x00000007FFFFFFFFL, 0x0000000FFFFFFFFFL, 0x0000001FFFFFFFFFL, 0x0000003FFFFFFFFFL,
-    //        0x0000007FFFFFFFFFL, 0x000000FFFFFFFFFFL, 0x000001FFFFFFFFFFL, 0x000003FFFFFFFFFFL, 0x000007FFFFFFFFFFL,
-    //        0x00000FFFFFFFFFFFL, 0x00001FFFFFFFFFFFL, 0x00003FFFFFFFFFFFL, 0x00007FFFFFFFFFFFL, 0x0000FFFFFFFFFFFFL,
-    //        0x0001FFFFFFFFFFFFL, 0x0003FFFFFFFFFFFFL, 0x0007FFFFFFFFFFFFL, 0x000FFFFFFFFFFFFFL, 0x001FFFFFFFFFFFFFL,
-    //        0x003FFFFFFFFFFFFFL, 0x007FFFFFFFFFFFFFL, 0x00FFFFFFFFFFFFFFL, 0x01FFFFFFFFFFFFFFL, 0x03FFFFFFFFFFFFFFL,
-    //        0x07FFFFFFFFFFFFFFL, 0x0FFFFFFFFFFFFFFFL, 0x1FFFFFFFFFFFFFFFL, 0x3FFFFFFFFFFFFFFFL, 0x7FFFFFFFFFFFFFFFL,
-    //        0xFFFFFFFFFFFFFFFFL};
-    
-    private static final int BUFFER_CHUNK_SIZE = 1024;
-    private byte[] buffer = new byte[BUFFER_CHUNK_SIZE];
-    private int putByte = 0;
-    private int getByte = 0;
-    private int getBit = 0;
-    private int availBits = 0;
-    private int totalBitsRead = 0;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    
+    private static final int RICE_TABLE_BITS = 10;
+    /**
+     * Decoded Rice codes for the parameters up to 7, indexed by the next {@link #RICE_TABLE_BITS} bits. Each entry is
+     * the value shifted left by 8 ORed with the length of the code, or 0 if the code is longer than the index.
+     */
+    private static final int[][] RICE_TABLES = new int[8][1 << RICE_TABLE_BITS];
+    
+    static {
+        for (int parameter = 0; parameter < RICE_TABLES.length; parameter++) {
+            for (int bits = 0; bits < (1 << RICE_TABLE_BITS); bits++) {
+                int zeros = Integer.numberOfLeadingZeros(bits) - (32 - RICE_TABLE_BITS);
+                int length = zeros + 1 + parameter;
+                if (length > RICE_TABLE_BITS) continue;
+                int lsbs = (bits >> (RICE_TABLE_BITS - length)) & ((1 << parameter) - 1);
+                int uval = (zeros << parameter) | lsbs;
+                int val = (uval >> 1) ^ -(uval & 1);
+                RICE_TABLES[parameter][bits] = (val << 8) | length;
+            }
+        }
+    }
+    
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos = 0; // next byte to move into the cache
+    private int bufferEnd = 0; // end of the valid data in the buffer
+    private long cache = 0; // left aligned, the bits after the valid ones are always 0
+    private int cacheBits = 0;
+    private long bitsBeforeBuffer = 0; // bits consumed that are no longer in the buffer
+    private long streamPosition = 0; // bytes read from the input stream so far
     
     private short readCRC16 = 0;
+    private int crcPos = 0; // first byte in the buffer not yet added to the CRC
+    private boolean crcEnabled = true;
     
     private InputStream inStream;
     
@@ -69,57 +86,115 @@ public class BitInputStream {
         this.inStream = is;
     }
     
-    //private void resize(int newCapacity) {
-    //    if (buffer.length >= newCapacity) return;
-    //    System.out.println("RESIZE FROM " + buffer.length + " TO " + newCapacity);
-    //    byte[] newBuffer = new byte[newCapacity];
-    //    System.arraycopy(buffer, 0, newBuffer, 0, putByte);
-    //    buffer = newBuffer;
-    //    //return;
-    //}
-    
-    //private void grow(int minBlurbsToAdd) {
-    //    int newCapacity = (buffer.length + minBlurbsToAdd + BUFFER_CHUNK_SIZE - 1) / BUFFER_CHUNK_SIZE;
-    //    resize(newCapacity);
-    //}
-    
-    //private void ensureSize(int bitsToAdd) {
-    //    int blurbsToAdd = (bitsToAdd + 7) >> 3;
-    //    if (buffer.length < (putByte + blurbsToAdd))
-    //        grow(blurbsToAdd);
-    //}
+    /**
+     * Bits consumed from the start of the buffer.
+     */
+    private int consumedBits() {
+        return (bufferPos << 3) - cacheBits;
+    }
     
     private int readFromStream() throws IOException {
-        // first shift the unconsumed buffer data toward the front as much as possible
-        if (getByte > 0 && putByte > getByte) {
-            System.arraycopy(buffer, getByte, buffer, 0, putByte - getByte);
+        // keep everything that hasn't been consumed yet, including the bytes already in the cache
+        int keepFrom = consumedBits() >> 3;
+        updateCRC(keepFrom);
+        if (keepFrom > 0) {
+            System.arraycopy(buffer, keepFrom, buffer, 0, bufferEnd - keepFrom);
+            bitsBeforeBuffer += (long) keepFrom << 3;
+            bufferPos -= keepFrom;
+            bufferEnd -= keepFrom;
+            crcPos = 0;
         }
-        putByte -= getByte;
-        getByte = 0;
-        
-        // set the target for reading, taking into account blurb alignment
-        // blurb == byte, so no gyrations necessary:
-        int bytes = buffer.length - putByte;
         
-        // finally, read in some data
-        bytes = inStream.read(buffer, putByte, bytes);
+        int bytes = inStream.read(buffer, bufferEnd, buffer.length - bufferEnd);
         if (bytes <= 0) throw new EOFException();
-        
-        // now we have to handle partial blurb cases:
-        // blurb == byte, so no gyrations necessary:
-        putByte += bytes;
-        availBits += bytes << 3;
+        bufferEnd += bytes;
+        streamPosition += bytes;
         return bytes;
     }
     
+    /**
+     * Move as many whole bytes as fit from the buffer into the cache.
+     */
+    private void fillCache() {
+        int bytes = (64 - cacheBits) >> 3;
+        if (bytes == 0) return;
+        if (bufferEnd - bufferPos >= 8) {
+            long word = (long) LONG_BE.get(buffer, bufferPos);
+            int newBits = bytes << 3;
+            cache |= (word >>> cacheBits) & (-1L << (64 - cacheBits - newBits));
+            cacheBits += newBits;
+            bufferPos += bytes;
+        } else {
+            while (cacheBits <= 56 && bufferPos < bufferEnd) {
+                cache |= (long) (buffer[bufferPos++] & 0xff) << (56 - cacheBits);
+                cacheBits += 8;
+            }
+        }
+    }
+    
+    /**
+     * Make sure there are at least this many bits in the cache. Bits must be at most 57.
+     */
+    private void need(int bits) throws IOException {
+        while (cacheBits < bits) {
+            if (bufferPos == bufferEnd) readFromStream();
+            fillCache();
+        }
+    }
+    
+    /**
+     * Drop bits from the cache. Bits must be less than 64.
+     */
+    private void consume(int bits) {
+        cache <<= bits;
+        cacheBits -= bits;
+    }
+    
+    /**
+     * Add the bytes consumed up to the given position in the buffer to the CRC.
+     */
+    private void updateCRC(int end) {
+        if (end <= crcPos) return;
+        if (crcEnabled) readCRC16 = CRC16.updateBlock(buffer, crcPos, end - crcPos, readCRC16);
+        crcPos = end;
+    }
+    
     /**
      * Reset the bit stream.
      */
     public void reset() {
-        getByte = 0;
-        getBit = 0;
-        putByte = 0;
-        availBits = 0;
+        bitsBeforeBuffer += consumedBits();
+        bufferPos = 0;
+        bufferEnd = 0;
+        cache = 0;
+        cacheBits = 0;
+        crcPos = 0;
+    }
+    
+    /**
+     * Reset the bit stream after the input stream was moved to a new position.
+     * @param position  The position the input stream was moved to
+     */
+    public void reset(long position) {
+        reset();
+        streamPosition = position;
+    }
+    
+    /**
+     * return the position in the input stream of the byte the next bit will be read from.
+     * Only meaningful if the stream was read from the start or {@link #reset(long)} was used.
+     * @return  The position of the next byte
+     */
+    public long getPosition() {
+        return streamPosition - bufferEnd + (consumedBits() >> 3);
+    }
+    
+    /**
+     * Turn computing the CRC-16 on or off. While off, {@link #getReadCRC16()} returns whatever the seed was.
+     * @param enabled   True to compute the CRC-16
+     */
+    public void setCRCEnabled(boolean enabled) {
+        crcEnabled = enabled;
     }
     
     /**
@@ -128,6 +203,7 @@ public class BitInputStream {
      */
     public void resetReadCRC16(short seed) {
         readCRC16 = seed;
+        crcPos = consumedBits() >> 3;
     }
     
     /**
@@ -135,6 +211,7 @@ public class BitInputStream {
      * @return  The read CRC-16 value
      */
     public short getReadCRC16() {
+        updateCRC(consumedBits() >> 3);
         return readCRC16;
     }
     
@@ -143,7 +220,7 @@ public class BitInputStream {
      * @return  True of bit stream consumed bits is byte aligned
      */
     public boolean isConsumedByteAligned() {
-        return ((getBit & 7) == 0);
+        return (cacheBits & 7) == 0;
     }
     
     /**
@@ -151,7 +228,7 @@ public class BitInputStream {
      * @return  The number of bits to align the byte
      */
     public int bitsLeftForByteAlignment() {
-        return 8 - (getBit & 7);
+        return 8 - (consumedBits() & 7);
     }
     
     /**
@@ -159,7 +236,7 @@ public class BitInputStream {
      * @return  The number of bytes left to read
      */
     public int getInputBytesUnconsumed() {
-        return availBits >> 3;
+        return (((bufferEnd - bufferPos) << 3) + cacheBits) >> 3;
     }   
         
     /**
@@ -169,7 +246,7 @@ public class BitInputStream {
      */
     public void skipBitsNoCRC(int bits) throws IOException {
         if (bits == 0) return;
-        int bitsToAlign = getBit & 7;
+        int bitsToAlign = consumedBits() & 7;
         if (bitsToAlign != 0) {
             int bitsToTake = Math.min(8 - bitsToAlign, bits);
             readRawUInt(bitsToTake);
@@ -191,22 +268,10 @@ public class BitInputStream {
      * @throws IOException  Thrown if error reading input stream
      */
     public int readBit() throws IOException {
-        while (true) {
-            if (availBits > 0) {
-                int val = ((buffer[getByte] & (0x80 >> getBit)) != 0) ? 1 : 0;
-                getBit++;
-                if (getBit == BITS_PER_BLURB) {
-                    readCRC16 = CRC16.update(buffer[getByte], readCRC16);
-                    getByte++;
-                    getBit = 0;
-                }
-                availBits--;
-                totalBitsRead++;
-                return val;
-            } else {
-                readFromStream();
-            }
-        }
+        if (cacheBits == 0) need(1);
+        int val = (int) (cache >>> 63);
+        consume(1);
+        return val;
     }
     
     /**
@@ -218,23 +283,7 @@ public class BitInputStream {
      * @throws IOException  Thrown if error reading input stream
      */
     public int readBitToInt(int val) throws IOException {
-        while (true) {
-            if (availBits > 0) {
-                val <<= 1;
-                val |= ((buffer[getByte] & (0x80 >> getBit)) != 0) ? 1 : 0;
-                getBit++;
-                if (getBit == BITS_PER_BLURB) {
-                    readCRC16 = CRC16.update(buffer[getByte], readCRC16);
-                    getByte++;
-                    getBit = 0;
-                }
-                availBits--;
-                totalBitsRead++;
-                return val;
-            } else {
-                readFromStream();
-            }
-        }
+        return (val << 1) | readBit();
     }
     
     /**
@@ -247,20 +296,8 @@ public class BitInputStream {
      * @throws IOException  Thrown if error reading input stream
      */
     public int peekBitToInt(int val, int bit) throws IOException {
-        while (true) {
-            if (bit < availBits) {
-                val <<= 1;
-                if ((getBit + bit) >= BITS_PER_BLURB) {
-                    bit = (getBit + bit) % BITS_PER_BLURB;
-                    val |= ((buffer[getByte + 1] & (0x80 >> bit)) != 0) ? 1 : 0;
-                } else {
-                    val |= ((buffer[getByte] & (0x80 >> (getBit + bit))) != 0) ? 1 : 0;
-                }
-                return val;
-            } else {
-                readFromStream();
-            }
-        }
+        need(bit + 1);
+        return (val << 1) | (int) ((cache >>> (63 - bit)) & 1);
     }
     
     /**
@@ -272,23 +309,7 @@ public class BitInputStream {
      * @throws IOException  Thrown if error reading input stream
      */
     public long readBitToLong(long val) throws IOException {
-        while (true) {
-            if (availBits > 0) {
-                val <<= 1;
-                val |= ((buffer[getByte] & (0x80 >> getBit)) != 0) ? 1 : 0;
-                getBit++;
-                if (getBit == BITS_PER_BLURB) {
-                    readCRC16 = CRC16.update(buffer[getByte], readCRC16);
-                    getByte++;
-                    getBit = 0;
-                }
-                availBits--;
-                totalBitsRead++;
-                return val;
-            } else {
-                readFromStream();
-            }
-        }
+        return (val << 1) | readBit();
     }
     
     /**
@@ -298,10 +319,10 @@ public class BitInputStream {
      * @throws IOException  Thrown if error reading input stream
      */
     public int readRawUInt(int bits) throws IOException {
-        int val = 0;
-        for (int i = 0; i < bits; i++) {
-            val = readBitToInt(val);
-        }
+        if (bits == 0) return 0;
+        if (cacheBits < bits) need(bits);
+        int val = (int) (cache >>> (64 - bits));
+        consume(bits);
         return val;
     }
     
@@ -312,11 +333,9 @@ public class BitInputStream {
      * @throws IOException  Thrown if error reading input stream
      */
     public int peekRawUInt(int bits) throws IOException {
-        int val = 0;
-        for (int i = 0; i < bits; i++) {
-            val = peekBitToInt(val, i);
-        }
-        return val;
+        if (bits == 0) return 0;
+        if (cacheBits < bits) need(bits);
+        return (int) (cache >>> (64 - bits));
     }
     
     /**
@@ -327,21 +346,10 @@ public class BitInputStream {
      */
     public int readRawInt(int bits) throws IOException { 
         if (bits == 0) { return 0; }
-        int uval = 0;
-        for (int i = 0; i < bits; i++) {
-            uval = readBitToInt(uval);
-        }
-        
-        // fix the sign
-        int val;
-        int bitsToleft = 32 - bits;
-        if (bitsToleft != 0) {
-            uval <<= bitsToleft;
-            val = uval;
-            val >>= bitsToleft;
-        } else {
-            val = uval;
-        }
+        if (cacheBits < bits) need(bits);
+        // the arithmetic shift takes care of the sign
+        int val = (int) (cache >> (64 - bits));
+        consume(bits);
         return val;
     }
     
@@ -352,11 +360,9 @@ public class BitInputStream {
      * @throws IOException  Thrown if error reading input stream
      */
     public long readRawULong(int bits) throws IOException {
-        long val = 0;
-        for (int i = 0; i < bits; i++) {
-            val = readBitToLong(val);
-        }
-        return val;
+        if (bits <= 32) return readRawUInt(bits) & 0xffffffffL;
+        long hi = readRawUInt(bits - 32) & 0xffffffffL;
+        return (hi << 32) | (readRawUInt(32) & 0xffffffffL);
     }
     
     /**
@@ -382,20 +388,38 @@ public class BitInputStream {
      * @throws IOException  Thrown if error reading input stream
      */
     public void readByteBlockAlignedNoCRC(byte[] val, int nvals) throws IOException {
-        int destlength = nvals;        
-        while (nvals > 0) {
-            int chunk = Math.min(nvals, putByte - getByte);
-            if (chunk <= 0) {
-                readFromStream();
-            } else {
-                if (val != null) System.arraycopy(buffer, getByte, val, destlength - nvals, chunk);
-                nvals -= chunk;
-                getByte += chunk;
-                //totalConsumedBits = (getByte << BITS_PER_BLURB_LOG2);
-                availBits -= (chunk << BITS_PER_BLURB_LOG2);
-                totalBitsRead += (chunk << BITS_PER_BLURB_LOG2);
+        // give the cached bytes back to the buffer, then copy straight from it
+        updateCRC(consumedBits() >> 3);
+        bufferPos -= cacheBits >> 3;
+        cache = 0;
+        cacheBits = 0;
+        
+        int destlength = nvals;
+        int chunk = Math.min(nvals, bufferEnd - bufferPos);
+        if (val != null) System.arraycopy(buffer, bufferPos, val, 0, chunk);
+        bufferPos += chunk;
+        nvals -= chunk;
+        
+        if (nvals > 0) {
+            // what's left isn't in the buffer at all, so there's no point in going through it
+            bitsBeforeBuffer += (long) bufferEnd << 3;
+            bufferPos = 0;
+            bufferEnd = 0;
+            while (nvals > 0) {
+                int bytes;
+                if (val != null) {
+                    bytes = inStream.read(val, destlength - nvals, nvals);
+                } else {
+                    bytes = (int) inStream.skip(nvals);
+                    if (bytes <= 0) bytes = inStream.read(buffer, 0, Math.min(nvals, buffer.length));
+                }
+                if (bytes <= 0) throw new EOFException();
+                nvals -= bytes;
+                streamPosition += bytes;
+                bitsBeforeBuffer += (long) bytes << 3;
             }
         }
+        crcPos = bufferPos;
     }
     
     /**
@@ -406,15 +430,26 @@ public class BitInputStream {
     public int readUnaryUnsigned() throws IOException {
         int val = 0;
         while (true) {
-            int bit = readBit();
-            if (bit != 0) break;
-            val++;
+            if (cacheBits == 0) need(1);
+            int zeros = Long.numberOfLeadingZeros(cache);
+            if (zeros < cacheBits) {
+                // two shifts since shifting a long by 64 does nothing
+                consume(zeros);
+                consume(1);
+                return val + zeros;
+            }
+            val += cacheBits;
+            cache = 0;
+            cacheBits = 0;
         }
-        return val;
     }
     
     /**
      * Read a Rice Signal Block.
+     * 
+     * Codes are decoded straight out of the cache, through {@link #RICE_TABLES} when they're short enough and by
+     * counting leading zeros otherwise. Only codes that run past the end of what's in the buffer go through
+     * {@link #readRiceSignedBlockGeneric}.
      * @param vals  The values to be returned
      * @param pos   The starting position in the vals array
      * @param nvals The number of values to return
@@ -422,198 +457,72 @@ public class BitInputStream {
      * @throws IOException  On read error
      */
     public void readRiceSignedBlock(int[] vals, int pos, int nvals, int parameter) throws IOException {
-        int j, valI = 0;
-        int cbits = 0, uval = 0, msbs = 0, lsbsLeft = 0;
-        byte blurb, saveBlurb;
-        int state = 0; // 0 = getting unary MSBs, 1 = getting binary LSBs
-        if (nvals == 0) return;
-        int i = getByte;
-        
-        long startBits = getByte * 8 + getBit;
-        
-        // We unroll the main loop to take care of partially consumed blurbs here.
-        if (getBit > 0) {
-            saveBlurb = blurb = buffer[i];
-            cbits = getBit;
-            blurb <<= cbits;
-            while (true) {
-                if (state == 0) {
-                    if (blurb != 0) {
-                        for (j = 0; (blurb & BLURB_TOP_BIT_ONE) == 0; j++)
-                            blurb <<= 1;
-                        msbs += j;
-                        
-                        // dispose of the unary end bit
-                        blurb <<= 1;
-                        j++;
-                        cbits += j;
-                        uval = 0;
-                        lsbsLeft = parameter;
-                        state++;
-                        //totalBitsRead += msbs;
-                        if (cbits == BITS_PER_BLURB) {
-                            cbits = 0;
-                            readCRC16 = CRC16.update(saveBlurb, readCRC16);
-                            break;
-                        }
-                    } else {
-                        msbs += BITS_PER_BLURB - cbits;
-                        cbits = 0;
-                        readCRC16 = CRC16.update(saveBlurb, readCRC16);
-                        //totalBitsRead += msbs;
-                        break;
-                    }
-                } else {
-                    int availableBits = BITS_PER_BLURB - cbits;
-                    if (lsbsLeft >= availableBits) {
-                        uval <<= availableBits;
-                        uval |= ((blurb & 0xff) >> cbits);
-                        cbits = 0;
-                        readCRC16 = CRC16.update(saveBlurb, readCRC16);
-                        //totalBitsRead += availableBits;
-                        if (lsbsLeft == availableBits) {
-                            // compose the value
-                            uval |= (msbs << parameter);
-                            if ((uval & 1) != 0)
-                                vals[pos + valI++] = -((int) (uval >> 1)) - 1;
-                            else
-                                vals[pos + valI++] = (int) (uval >> 1);
-                            if (valI == nvals)
-                                break;
-                            msbs = 0;
-                            state = 0;
-                        }
-                        lsbsLeft -= availableBits;
-                        break;
-                    } else {
-                        uval <<= lsbsLeft;
-                        uval |= ((blurb & 0xff) >> (BITS_PER_BLURB - lsbsLeft));
-                        blurb <<= lsbsLeft;
-                        cbits += lsbsLeft;
-                        //totalBitsRead += lsbsLeft;
-                        // compose the value
-                        uval |= (msbs << parameter);
-                        if ((uval & 1) != 0)
-                            vals[pos + valI++] = -((int) (uval >> 1)) - 1;
-                        else
-                            vals[pos + valI++] = (int) (uval >> 1);
-                        if (valI == nvals) {
-                            // back up one if we exited the for loop because we
-                            // read all nvals but the end came in the middle of
-                            // a blurb
-                            i--;
-                            break;
-                        }
-                        msbs = 0;
-                        state = 0;
-                    }
+        int end = pos + nvals;
+        int[] table = parameter < RICE_TABLES.length ? RICE_TABLES[parameter] : null;
+        while (pos < end) {
+            long cache = this.cache;
+            int cacheBits = this.cacheBits;
+            while (pos < end) {
+                if (cacheBits < 32) {
+                    if (bufferEnd - bufferPos < 8) break;
+                    int bytes = (64 - cacheBits) >> 3;
+                    int newBits = bytes << 3;
+                    long word = (long) LONG_BE.get(buffer, bufferPos);
+                    cache |= (word >>> cacheBits) & (-1L << (64 - cacheBits - newBits));
+                    cacheBits += newBits;
+                    bufferPos += bytes;
                 }
-            }
-            i++;
-            getByte = i;
-            getBit = cbits;
-            //totalConsumedBits = (i << BITS_PER_BLURB_LOG2) | cbits;
-            //totalBitsRead += (BITS_PER_BLURB) | cbits;
-        }
-        
-        // Now that we are blurb-aligned the logic is slightly simpler
-        while (valI < nvals) {
-            for (; i < putByte && valI < nvals; i++) {
-                saveBlurb = blurb = buffer[i];
-                cbits = 0;
-                while (true) {
-                    if (state == 0) {
-                        if (blurb != 0) {
-                            for (j = 0; (blurb & BLURB_TOP_BIT_ONE) == 0; j++) blurb <<= 1;
-                            msbs += j;
-                            // dispose of the unary end bit
-                            blurb <<= 1;
-                            j++;
-                            cbits += j;
-                            uval = 0;
-                            lsbsLeft = parameter;
-                            state++;
-                            //totalBitsRead += msbs;
-                            if (cbits == BITS_PER_BLURB) {
-                                cbits = 0;
-                                readCRC16 = CRC16.update(saveBlurb, readCRC16);
-                                break;
-                            }
-                        } else {
-                            msbs += BITS_PER_BLURB - cbits;
-                            cbits = 0;
-                            readCRC16 = CRC16.update(saveBlurb, readCRC16);
-                            //totalBitsRead += msbs;
-                            break;
-                        }
-                    } else {
-                        int availableBits = BITS_PER_BLURB - cbits;
-                        if (lsbsLeft >= availableBits) {
-                            uval <<= availableBits;
-                            uval |= ((blurb & 0xff) >> cbits);
-                            cbits = 0;
-                            readCRC16 = CRC16.update(saveBlurb, readCRC16);
-                            //totalBitsRead += availableBits;
-                            if (lsbsLeft == availableBits) {
-                                // compose the value
-                                uval |= (msbs << parameter);
-                                if ((uval & 1) != 0)
-                                    vals[pos + valI++] = -((int) (uval >> 1)) - 1;
-                                else
-                                    vals[pos + valI++] = (int) (uval >> 1);
-                                if (valI == nvals)
-                                    break;
-                                msbs = 0;
-                                state = 0;
-                            }
-                            lsbsLeft -= availableBits;
-                            break;
-                        } else {
-                            uval <<= lsbsLeft;
-                            uval |= ((blurb & 0xff) >> (BITS_PER_BLURB - lsbsLeft));
-                            blurb <<= lsbsLeft;
-                            cbits += lsbsLeft;
-                            //totalBitsRead += lsbsLeft;
-                            // compose the value
-                            uval |= (msbs << parameter);
-                            if ((uval & 1) != 0)
-                                vals[pos + valI++] = -((int) (uval >> 1)) - 1;
-                            else
-                                vals[pos + valI++] = (int) (uval >> 1);
-                            if (valI == nvals) {
-                                // back up one if we exited the for loop because
-                                // we read all nvals but the end came in the
-                                // middle of a blurb
-                                i--;
-                                break;
-                            }
-                            msbs = 0;
-                            state = 0;
-                        }
+                if (table != null) {
+                    int entry = table[(int) (cache >>> (64 - RICE_TABLE_BITS))];
+                    if (entry != 0) {
+                        int length = entry & 0xff;
+                        cache <<= length;
+                        cacheBits -= length;
+                        vals[pos++] = entry >> 8;
+                        continue;
                     }
                 }
+                int zeros = Long.numberOfLeadingZeros(cache);
+                int length = zeros + 1 + parameter;
+                if (length > cacheBits) break;
+                // the extra shift by one keeps a parameter of 0 from turning into a shift by 64
+                int uval = (zeros << parameter) | (int) ((cache << zeros << 1 >>> 1) >>> (63 - parameter));
+                cache = cache << zeros << 1 << parameter;
+                cacheBits -= length;
+                // zigzag: even values are positive, odd ones negative
+                vals[pos++] = (uval >> 1) ^ -(uval & 1);
             }
-            getByte = i;
-            getBit = cbits;
-            //totalConsumedBits = (i << BITS_PER_BLURB_LOG2) | cbits;
-            //totalBitsRead += (BITS_PER_BLURB) | cbits;
-            if (valI < nvals) {
-                long endBits = getByte * 8 + getBit;
-                //System.out.println("SE0 "+startBits+" "+endBits);
-                totalBitsRead += endBits - startBits;
-                availBits -=  endBits - startBits;
-                readFromStream();
-                // these must be zero because we can only get here if we got to
-                // the end of the buffer
-                i = 0;
-                startBits = getByte * 8 + getBit;
+            this.cache = cache;
+            this.cacheBits = cacheBits;
+            if (pos < end) {
+                // near the end of the buffer, or a code too long for the cache
+                readRiceSignedBlockGeneric(vals, pos++, 1, parameter);
             }
         }
-        
-        long endBits = getByte * 8 + getBit;
-        //System.out.println("SE1 "+startBits+" "+endBits);
-        totalBitsRead += endBits - startBits;
-        availBits -= endBits - startBits;
+    }
+    
+    /**
+     * Read a Rice Signal Block one code at a time, refilling as needed. Slower than
+     * {@link #readRiceSignedBlock}, which uses it as a fallback.
+     * @param vals  The values to be returned
+     * @param pos   The starting position in the vals array
+     * @param nvals The number of values to return
+     * @param parameter The Rice parameter
+     * @throws IOException  On read error
+     */
+    public void readRiceSignedBlockGeneric(int[] vals, int pos, int nvals, int parameter) throws IOException {
+        int end = pos + nvals;
+        while (pos < end) {
+            int msbs = readUnaryUnsigned();
+            int uval = msbs << parameter;
+            if (parameter > 0) {
+                if (cacheBits < parameter) need(parameter);
+                uval |= (int) (cache >>> (64 - parameter));
+                consume(parameter);
+            }
+            // zigzag: even values are positive, odd ones negative
+            vals[pos++] = (uval >> 1) ^ -(uval & 1);
+        }
     }
     
     /**
@@ -724,6 +633,6 @@ public class BitInputStream {
      * @return Returns the total blurbs read.
      */
     public int getTotalBytesRead() {
-        return ((totalBitsRead + 7) / 8);
+        return (int) ((bitsBeforeBuffer + consumedBits() + 7) / 8);
     }
 }
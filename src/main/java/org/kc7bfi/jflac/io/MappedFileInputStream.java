@@ -0,0 +1,188 @@
+package org.kc7bfi.jflac.io;
+
+/**
+ * Copyright (C) 2025 Blackilykat
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A RandomFileInputStream that reads out of a memory mapping of the file instead of calling read on it, so filling
+ * the {@link BitInputStream} buffer is a plain copy from the page cache with no system call.
+ *
+ * Files too big to map in one go (over 2GB) are read through the RandomAccessFile like a RandomFileInputStream.
+ *
+ * The mapping is not released by {@link #close()}, it stays alive until the stream and every {@link #duplicate()} of
+ * it get garbage collected. Java 21 has no safe way to unmap a MappedByteBuffer, and unmapping it while a duplicate
+ * is still being read would crash the JVM. It only takes address space, the pages themselves belong to the page
+ * cache, but anything that opens a lot of files in a row (like scanning the library) shouldn't hold on to the streams.
+ */
+public class MappedFileInputStream extends RandomFileInputStream {
+
+    private final File file;
+    private final MappedByteBuffer mapped;
+    /** False for streams made by {@link #duplicate()}, which share the file with the one they came from. */
+    private final boolean ownsFile;
+
+    /**
+     * Constructor.
+     * @param file  The File to read
+     * @throws IOException  If the file can't be opened or mapped
+     */
+    public MappedFileInputStream(File file) throws IOException {
+        super(file);
+        this.file = file;
+        this.ownsFile = true;
+        FileChannel channel = randomFile.getChannel();
+        long size = channel.size();
+        if (size <= Integer.MAX_VALUE) {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (IOException e) {
+                randomFile.close();
+                throw e;
+            }
+        } else {
+            mapped = null;
+        }
+    }
+
+    private MappedFileInputStream(File file, RandomAccessFile randomFile, MappedByteBuffer mapped) {
+        super(randomFile);
+        this.file = file;
+        this.mapped = mapped;
+        this.ownsFile = false;
+    }
+
+    /**
+     * Make another stream over the same file with its own position, starting at the beginning. It reads from the same
+     * mapping instead of mapping the file again, so several threads can read different parts of the file at once.
+     * Closing it doesn't close this one.
+     * @return the new stream
+     * @throws IOException  If the file is too big to be mapped and can't be opened again
+     */
+    public MappedFileInputStream duplicate() throws IOException {
+        if (mapped == null) return new MappedFileInputStream(file);
+        MappedByteBuffer view = mapped.duplicate();
+        view.position(0);
+        return new MappedFileInputStream(file, randomFile, view);
+    }
+
+    /**
+     * Close the file, unless this stream came from {@link #duplicate()}. The mapping stays alive until garbage
+     * collection, see the class description.
+     * @throws IOException on IO error
+     */
+    public void close() throws IOException {
+        if (ownsFile) super.close();
+    }
+
+    /**
+     * Read a byte value.
+     * @return the byte value, or -1 at the end of the file
+     * @throws IOException on IO error
+     * @see java.io.InputStream#read()
+     */
+    public int read() throws IOException {
+        if (mapped == null) return super.read();
+        if (!mapped.hasRemaining()) return -1;
+        return mapped.get() & 0xff;
+    }
+
+    /**
+     * Read bytes into an array.
+     * @param buffer    The buffer to read bytes into
+     * @return bytes read
+     * @throws IOException on IO error
+     * @see java.io.InputStream#read(byte[])
+     */
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Read bytes into an array.
+     * @param buffer    The buffer to read bytes into
+     * @param pos   The start position in the buffer
+     * @param bytes The number of bytes to read
+     * @return bytes read, or -1 at the end of the file
+     * @throws IOException on IO error
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read(byte[] buffer, int pos, int bytes) throws IOException {
+        if (mapped == null) return super.read(buffer, pos, bytes);
+        if (bytes == 0) return 0;
+        int remaining = mapped.remaining();
+        if (remaining == 0) return -1;
+        int count = Math.min(bytes, remaining);
+        mapped.get(buffer, pos, count);
+        return count;
+    }
+
+    /**
+     * Skip bytes in the input file.
+     * @param bytes The number of bytes to skip
+     * @return the number of bytes skipped
+     * @throws IOException on IO error
+     * @see java.io.InputStream#skip(long)
+     */
+    public long skip(long bytes) throws IOException {
+        if (mapped == null) return super.skip(bytes);
+        int count = (int) Math.max(0, Math.min(bytes, mapped.remaining()));
+        mapped.position(mapped.position() + count);
+        return count;
+    }
+
+    /**
+     * @return how many bytes are left in the file
+     * @throws IOException on IO error
+     * @see java.io.InputStream#available()
+     */
+    public int available() throws IOException {
+        if (mapped == null) return super.available();
+        return mapped.remaining();
+    }
+
+    /**
+     * Seek to a position in the file.
+     * @param pos   The seek position
+     * @throws IOException  On error seeking
+     */
+    public void seek(long pos) throws IOException {
+        if (mapped == null) {
+            super.seek(pos);
+            return;
+        }
+        if (pos < 0) throw new IOException("Negative seek offset");
+        mapped.position((int) Math.min(pos, mapped.limit()));
+    }
+
+    /** returns current read position in file
+     *
+     * @return the position
+     * @throws IOException on IO error
+     */
+    public long getPosition() throws IOException {
+        if (mapped == null) return super.getPosition();
+        return mapped.position();
+    }
+}
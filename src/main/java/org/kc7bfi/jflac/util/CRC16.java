@@ -286,6 +286,23 @@ public final class CRC16 {
             (short) 0x8207,
             (short) 0x0202 };
 
+    /**
+     * Tables for slicing-by-8: entry b of table k is the CRC of byte b followed by k zero bytes.
+     */
+    private static final int[][] SLICING_TABLES = new int[8][256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            SLICING_TABLES[0][b] = CRC16_TABLE[b] & 0xffff;
+        }
+        for (int k = 1; k < 8; k++) {
+            for (int b = 0; b < 256; b++) {
+                int previous = SLICING_TABLES[k - 1][b];
+                SLICING_TABLES[k][b] = ((previous << 8) ^ SLICING_TABLES[0][previous >>> 8]) & 0xffff;
+            }
+        }
+    }
+
     /**
      * Update the CRC with the byte data.
      * 
@@ -307,9 +324,37 @@ public final class CRC16 {
      * @return      The updated CRC value
      */
     public static short updateBlock(byte[] data, int len, short crc) {
-        for (int i = 0; i < len; i++)
-            crc = (short) ((crc << 8) ^ CRC16_TABLE[(crc >> 8) ^ data[i]]);
-        return crc;
+        return updateBlock(data, 0, len, crc);
+    }
+
+    /**
+     * Update the CRC with part of a byte array, 8 bytes at a time.
+     * 
+     * @param data  The byte array data
+     * @param off   The position of the first byte
+     * @param len   How many bytes to add
+     * @param crc   The starting CRC value
+     * @return      The updated CRC value
+     */
+    public static short updateBlock(byte[] data, int off, int len, short crc) {
+        int c = crc & 0xffff;
+        int end = off + len;
+        int[] t0 = SLICING_TABLES[0], t1 = SLICING_TABLES[1], t2 = SLICING_TABLES[2], t3 = SLICING_TABLES[3];
+        int[] t4 = SLICING_TABLES[4], t5 = SLICING_TABLES[5], t6 = SLICING_TABLES[6], t7 = SLICING_TABLES[7];
+        for (; off + 8 <= end; off += 8) {
+            c = t7[((c >>> 8) ^ data[off]) & 0xff]
+                ^ t6[(c ^ data[off + 1]) & 0xff]
+                ^ t5[data[off + 2] & 0xff]
+                ^ t4[data[off + 3] & 0xff]
+                ^ t3[data[off + 4] & 0xff]
+                ^ t2[data[off + 5] & 0xff]
+                ^ t1[data[off + 6] & 0xff]
+                ^ t0[data[off + 7] & 0xff];
+        }
+        for (; off < end; off++) {
+            c = ((c << 8) ^ t0[((c >>> 8) ^ data[off]) & 0xff]) & 0xffff;
+        }
+        return (short) c;
     }
 
 
@@ -321,11 +366,6 @@ public final class CRC16 {
      * @return      The calculated CRC value
      */
     public static short calc(byte[] data, int len) {
-        short crc = 0;
-
-        for (int i = 0; i < len; i++)
-            crc = (short) ((crc << 8) ^ CRC16_TABLE[(crc >> 8) ^ data[i]]);
-
-        return crc;
+        return updateBlock(data, 0, len, (short) 0);
     }
 }
@@ -286,6 +286,21 @@ public final class CRC8 {
             (byte) 0xF4,
             (byte) 0xF3 };
 
+    /**
+     * Tables for slicing-by-8: entry b of table k is the CRC of byte b followed by k zero bytes.
+     */
+    private static final byte[][] SLICING_TABLES = new byte[8][];
+
+    static {
+        SLICING_TABLES[0] = CRC8_TABLE;
+        for (int k = 1; k < 8; k++) {
+            SLICING_TABLES[k] = new byte[256];
+            for (int b = 0; b < 256; b++) {
+                SLICING_TABLES[k][b] = CRC8_TABLE[SLICING_TABLES[k - 1][b] & 0xff];
+            }
+        }
+    }
+    
     /**
      * Update the CRC value with a byte data.
      * 
@@ -294,7 +309,7 @@ public final class CRC8 {
      * @return      The updated CRC value
      */
     public static byte update(byte data, byte crc) {
-        return CRC8_TABLE[crc ^ data];
+        return CRC8_TABLE[(crc ^ data) & 0xff];
     }
 
     /**
@@ -306,8 +321,35 @@ public final class CRC8 {
      * @return      The updated CRC value
      */
     public static byte updateBlock(byte[] data, int len, byte crc) {
-        for (int i = 0; i < len; i++)
-            crc = CRC8_TABLE[crc ^ data[i]];
+        return updateBlock(data, 0, len, crc);
+    }
+
+    /**
+     * Update the CRC value with part of a byte array, 8 bytes at a time.
+     * 
+     * @param data  The byte array
+     * @param off   The position of the first byte
+     * @param len   How many bytes to add
+     * @param crc   The starting CRC value
+     * @return      The updated CRC value
+     */
+    public static byte updateBlock(byte[] data, int off, int len, byte crc) {
+        int end = off + len;
+        byte[] t0 = SLICING_TABLES[0], t1 = SLICING_TABLES[1], t2 = SLICING_TABLES[2], t3 = SLICING_TABLES[3];
+        byte[] t4 = SLICING_TABLES[4], t5 = SLICING_TABLES[5], t6 = SLICING_TABLES[6], t7 = SLICING_TABLES[7];
+        for (; off + 8 <= end; off += 8) {
+            crc = (byte) (t7[(crc ^ data[off]) & 0xff]
+                ^ t6[data[off + 1] & 0xff]
+                ^ t5[data[off + 2] & 0xff]
+                ^ t4[data[off + 3] & 0xff]
+                ^ t3[data[off + 4] & 0xff]
+                ^ t2[data[off + 5] & 0xff]
+                ^ t1[data[off + 6] & 0xff]
+                ^ t0[data[off + 7] & 0xff]);
+        }
+        for (; off < end; off++) {
+            crc = t0[(crc ^ data[off]) & 0xff];
+        }
         return crc;
     }
 
@@ -319,11 +361,6 @@ public final class CRC8 {
      * @return      The calculated CRC value
      */
     public static byte calc(byte[] data, int len) {
-        byte crc = 0;
-
-        for (int i = 0; i < len; i++)
-            crc = CRC8_TABLE[(crc ^ data[i]) & 0xff];
-
-        return crc;
+        return updateBlock(data, 0, len, (byte) 0);
     }
 }